@@ -0,0 +1,214 @@
+package algorithms.features.sift;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import algorithms.utils.Util;
+
+/**
+ * Blur of a 2048x2048 image with the gaussian kernels of the scales of an
+ * octave for the default parameters, sigma 1.6 and 3 steps, whose kernel
+ * lengths are 9, 13, 17, 23 and 29:
+ * <ul>
+ * <li>{@link #original()}: the convolveSeparable of Filter before it was
+ * optimized, copied verbatim as the reference, with its vertical pass column
+ * by column</li>
+ * <li>{@link #generic()}: separable convolution with the vertical pass row
+ * by row but without folding, as done before symmetric kernels were folded</li>
+ * <li>{@link #folded()}: {@link Filter#convolveSeparable(FloatArray2D, float[], float[], FloatArray2D, FloatArray2D)}
+ * with folded and unrolled kernels ({@link BlurEngine#FIR})</li>
+ * <li>{@link #recursive()}: {@link RecursiveGaussian} ({@link BlurEngine#RECURSIVE})</li>
+ * </ul>
+ * All run on a single core. Run with <code>gradle jmh</code>.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.util.concurrent.ForkJoinPool.common.parallelism=1",
+    "-Dsift.vector=false" })
+public class ConvolutionBenchmark {
+	final static private int SIZE = 2048;
+
+	/**
+	 * sigma differences of the scales 1 to 5 of an octave
+	 */
+	@Param({ "1.226", "1.974", "2.771", "3.700", "4.800" })
+	public float sigma;
+
+	private float[] kernel;
+	private RecursiveGaussian recursiveGaussian;
+	private FloatArray2D input;
+	private FloatArray2D output;
+	private FloatArray2D temp;
+
+	@Setup
+	public void setup() {
+		kernel = Filter.createGaussianKernel(sigma, true);
+		recursiveGaussian = new RecursiveGaussian(sigma);
+		input = new FloatArray2D(SIZE, SIZE);
+		final Random random = new Random(0);
+		for (int i = 0; i < input.data.length; ++i)
+			input.data[i] = random.nextFloat();
+		output = new FloatArray2D(SIZE, SIZE);
+		temp = new FloatArray2D(SIZE, SIZE);
+	}
+
+	@Benchmark
+	public FloatArray2D original() {
+		return convolveOriginal(input, kernel, kernel);
+	}
+
+	@Benchmark
+	public FloatArray2D generic() {
+		convolveGeneric(input, kernel, temp, output);
+		return output;
+	}
+
+	@Benchmark
+	public FloatArray2D folded() {
+		return Filter.convolveSeparable(input, kernel, kernel, output, temp);
+	}
+
+	@Benchmark
+	public FloatArray2D recursive() {
+		return recursiveGaussian.blur(input, output, temp);
+	}
+
+	/**
+	 * Filter.convolveSeparable(FloatArray2D, float[], float[]) as it was before
+	 * the optimizations, verbatim. Its vertical border loops read the taps of h,
+	 * h and v are the same kernel here.
+	 */
+	final static private FloatArray2D convolveOriginal(final FloatArray2D input, final float[] h, final float[] v) {
+		final FloatArray2D output = new FloatArray2D(input.width, input.height);
+		final FloatArray2D temp = new FloatArray2D(input.width, input.height);
+
+		final int hl = h.length / 2;
+		final int vl = v.length / 2;
+
+		int xl = input.width - h.length + 1;
+		int yl = input.height - v.length + 1;
+
+		// create lookup tables for coordinates outside the image range
+		final int[] xb = new int[h.length + hl - 1];
+		final int[] xa = new int[h.length + hl - 1];
+		for (int i = 0; i < xb.length; ++i) {
+			xb[i] = Util.pingPong(i - hl, input.width);
+			xa[i] = Util.pingPong(i + xl, input.width);
+		}
+
+		final int[] yb = new int[v.length + vl - 1];
+		final int[] ya = new int[v.length + vl - 1];
+		for (int i = 0; i < yb.length; ++i) {
+			yb[i] = input.width * Util.pingPong(i - vl, input.height);
+			ya[i] = input.width * Util.pingPong(i + yl, input.height);
+		}
+
+		xl += hl;
+		yl += vl;
+
+		// horizontal convolution per row
+		final int rl = input.height * input.width;
+		for (int r = 0; r < rl; r += input.width) {
+			for (int x = hl; x < xl; ++x) {
+				final int c = x - hl;
+				float val = 0;
+				for (int xk = 0; xk < h.length; ++xk) {
+					val += h[xk] * input.data[r + c + xk];
+				}
+				temp.data[r + x] = val;
+			}
+			for (int x = 0; x < hl; ++x) {
+				float valb = 0;
+				float vala = 0;
+				for (int xk = 0; xk < h.length; ++xk) {
+					valb += h[xk] * input.data[r + xb[x + xk]];
+					vala += h[xk] * input.data[r + xa[x + xk]];
+				}
+				temp.data[r + x] = valb;
+				temp.data[r + x + xl] = vala;
+			}
+		}
+
+		// vertical convolution per column
+		final int rm = yl * temp.width;
+		final int vlc = vl * temp.width;
+		for (int x = 0; x < temp.width; ++x) {
+			for (int r = vlc; r < rm; r += temp.width) {
+				float val = 0;
+				final int c = r - vlc;
+				int rk = 0;
+				for (int yk = 0; yk < v.length; ++yk) {
+					val += v[yk] * temp.data[c + rk + x];
+					rk += temp.width;
+				}
+				output.data[r + x] = val;
+			}
+			for (int y = 0; y < vl; ++y) {
+				final int r = y * temp.width;
+				float valb = 0;
+				float vala = 0;
+				for (int yk = 0; yk < v.length; ++yk) {
+					valb += h[yk] * temp.data[yb[y + yk] + x];
+					vala += h[yk] * temp.data[ya[y + yk] + x];
+				}
+				output.data[r + x] = valb;
+				output.data[r + rm + x] = vala;
+			}
+		}
+
+		return output;
+	}
+
+	/**
+	 * separable convolution with mirrored borders and a vertical pass row by
+	 * row, each tap multiplied on its own
+	 */
+	final static private void convolveGeneric(final FloatArray2D input, final float[] k, final FloatArray2D temp,
+	    final FloatArray2D output) {
+		final int l = k.length / 2;
+		final int width = input.width;
+		final int height = input.height;
+		final float[] row = new float[width + 2 * l];
+		for (int y = 0; y < height; ++y) {
+			System.arraycopy(input.data, y * width, row, l, width);
+			Filter.mirrorBorders(row, width, l);
+			for (int x = 0; x < width; ++x) {
+				float val = 0;
+				for (int i = 0; i < k.length; ++i)
+					val += k[i] * row[x + i];
+				temp.data[y * width + x] = val;
+			}
+		}
+		final int[] ro = new int[height + 2 * l];
+		for (int i = 0; i < ro.length; ++i)
+			ro[i] = width * Util.pingPong(i - l, height);
+		for (int y = 0; y < height; ++y) {
+			final int r = y * width;
+			for (int x = 0; x < width; ++x)
+				output.data[r + x] = 0;
+			for (int i = 0; i < k.length; ++i) {
+				final float ki = k[i];
+				final int ri = ro[y + i];
+				for (int x = 0; x < width; ++x)
+					output.data[r + x] += ki * temp.data[ri + x];
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package algorithms.features.sift;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import algorithms.utils.Util;
+
+/**
+ * Vertical pass of the separable convolution with the kernels of
+ * {@link FloatArray2DSIFT#setInitialSigma(float)} for the default parameters,
+ * sigma 1.6 and 3 steps, one per scale of an octave, of lengths 9, 13, 17, 23
+ * and 29:
+ * <ul>
+ * <li>{@link #strided()}: each column on its own with a stride of one row, as
+ * done before the pass was cache blocked, copied verbatim</li>
+ * <li>{@link #blocked()}: blocks of 512 columns accumulated row by row with
+ * unit stride, as introduced by the cache blocking, copied verbatim</li>
+ * <li>{@link #current()}:
+ * {@link Filter#convolveVertical(FloatArray2D, float[], FloatArray2D)}, cache
+ * blocked and with folded kernels</li>
+ * </ul>
+ * All run on a single core. Run with <code>gradle jmh</code>.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.util.concurrent.ForkJoinPool.common.parallelism=1",
+    "-Dsift.vector=false" })
+public class VerticalPassBenchmark {
+	/**
+	 * scale of the octave whose kernel is used
+	 */
+	@Param({ "1", "2", "3", "4", "5" })
+	public int scale;
+
+	/**
+	 * image width and height
+	 */
+	@Param({ "1024", "2048", "4096" })
+	public int size;
+
+	private float[] kernel;
+	private FloatArray2D input;
+	private FloatArray2D output;
+
+	@Setup
+	public void setup() {
+		// sigma_diff of FloatArray2DSIFT.setInitialSigma
+		final FloatArray2DSIFT.Param p = new FloatArray2DSIFT.Param();
+		final float sigma = p.initialSigma * (float) Math.pow(2.0f, (float) scale / (float) p.steps);
+		final float sigmaDiff = (float) Math.sqrt(sigma * sigma - p.initialSigma * p.initialSigma);
+		kernel = Filter.createGaussianKernel(sigmaDiff, true);
+		input = new FloatArray2D(size, size);
+		final Random random = new Random(0);
+		for (int i = 0; i < input.data.length; ++i)
+			input.data[i] = random.nextFloat();
+		output = new FloatArray2D(size, size);
+	}
+
+	@Benchmark
+	public FloatArray2D strided() {
+		convolveVerticalStrided(input, kernel, output);
+		return output;
+	}
+
+	@Benchmark
+	public FloatArray2D blocked() {
+		convolveVerticalBlocked(input, kernel, output);
+		return output;
+	}
+
+	@Benchmark
+	public FloatArray2D current() {
+		Filter.convolveVertical(input, kernel, output);
+		return output;
+	}
+
+	/**
+	 * Filter.convolveVertical before the cache blocking, verbatim
+	 */
+	final static private void convolveVerticalStrided(final FloatArray2D input, final float[] v,
+	    final FloatArray2D output) {
+		final int vl = v.length / 2;
+		int yl = input.height - v.length + 1;
+
+		// create lookup tables for coordinates outside the image range
+		final int[] yb = new int[v.length + vl - 1];
+		final int[] ya = new int[v.length + vl - 1];
+		for (int i = 0; i < yb.length; ++i) {
+			yb[i] = input.width * Util.pingPong(i - vl, input.height);
+			ya[i] = input.width * Util.pingPong(i + yl, input.height);
+		}
+
+		yl += vl;
+
+		// vertical convolution per column
+		final int rm = yl * input.width;
+		final int vlc = vl * input.width;
+		for (int x = 0; x < input.width; ++x) {
+			for (int r = vlc; r < rm; r += input.width) {
+				float val = 0;
+				final int c = r - vlc;
+				int rk = 0;
+				for (int yk = 0; yk < v.length; ++yk) {
+					val += v[yk] * input.data[c + rk + x];
+					rk += input.width;
+				}
+				output.data[r + x] = val;
+			}
+			for (int y = 0; y < vl; ++y) {
+				final int r = y * input.width;
+				float valb = 0;
+				float vala = 0;
+				for (int yk = 0; yk < v.length; ++yk) {
+					valb += v[yk] * input.data[yb[y + yk] + x];
+					vala += v[yk] * input.data[ya[y + yk] + x];
+				}
+				output.data[r + x] = valb;
+				output.data[r + rm + x] = vala;
+			}
+		}
+	}
+
+	final static private int COLUMN_BLOCK = 512;
+
+	/**
+	 * Filter.convolveVertical as introduced by the cache blocking, verbatim
+	 */
+	final static private void convolveVerticalBlocked(final FloatArray2D input, final float[] v,
+	    final FloatArray2D output) {
+		final int vl = v.length / 2;
+		final int width = input.width;
+		final int height = input.height;
+		final float[] in = input.data;
+		final float[] out = output.data;
+
+		// row offsets for all rows under the kernel including the mirrored ones
+		final int[] ro = new int[height + 2 * vl];
+		for (int i = 0; i < ro.length; ++i)
+			ro[i] = width * Util.pingPong(i - vl, height);
+
+		for (int x0 = 0; x0 < width; x0 += COLUMN_BLOCK) {
+			final int x1 = Math.min(width, x0 + COLUMN_BLOCK);
+			for (int y = 0; y < height; ++y) {
+				final int r = y * width;
+				for (int x = x0; x < x1; ++x)
+					out[r + x] = 0;
+				for (int yk = 0; yk < v.length; ++yk) {
+					final float k = v[yk];
+					final int rk = ro[y + yk];
+					for (int x = x0; x < x1; ++x)
+						out[r + x] += k * in[rk + x];
+				}
+			}
+		}
+	}
+}
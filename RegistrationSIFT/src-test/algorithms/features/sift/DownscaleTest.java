@@ -0,0 +1,123 @@
+package algorithms.features.sift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * {@link FloatArray2DScaleOctave#downscale(FloatArray2D, FloatArray2D)} and
+ * its area weights against a plain area average computed in double.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class DownscaleTest {
+	/**
+	 * { source width, source height, destination width, destination height },
+	 * power of two, integer, non integer and unequal ratios
+	 */
+	final static private int[][] SIZES = { { 256, 128, 128, 64 }, { 256, 128, 32, 16 }, { 300, 200, 100, 50 },
+	    { 300, 200, 200, 150 }, { 301, 199, 150, 99 }, { 257, 193, 97, 71 }, { 100, 80, 100, 33 }, { 64, 48, 1, 1 },
+	    { 77, 55, 77, 55 } };
+
+	final static private float EPSILON = 1e-5f;
+
+	/**
+	 * @return uniform noise in [0, 1]
+	 */
+	final static private FloatArray2D noise(final int width, final int height, final long seed) {
+		final Random random = new Random(seed);
+		final FloatArray2D image = new FloatArray2D(width, height);
+		for (int i = 0; i < image.data.length; ++i)
+			image.data[i] = random.nextFloat();
+		return image;
+	}
+
+	/**
+	 * @return length of the overlap of [a0, a1) and [b0, b1)
+	 */
+	final static private double overlap(final double a0, final double a1, final double b0, final double b1) {
+		return Math.max(0, Math.min(a1, b1) - Math.max(a0, b0));
+	}
+
+	/**
+	 * @return mean of src over the area each pixel of a width x height image
+	 *         covers
+	 */
+	final static private double[] reference(final FloatArray2D src, final int width, final int height) {
+		final double sx = (double) src.width / width;
+		final double sy = (double) src.height / height;
+		final double[] dst = new double[width * height];
+		for (int y = 0; y < height; ++y)
+			for (int x = 0; x < width; ++x) {
+				double sum = 0;
+				for (int ys = 0; ys < src.height; ++ys) {
+					final double wy = overlap(y * sy, (y + 1) * sy, ys, ys + 1);
+					if (wy > 0)
+						for (int xs = 0; xs < src.width; ++xs)
+							sum += wy * overlap(x * sx, (x + 1) * sx, xs, xs + 1) * src.data[ys * src.width + xs];
+				}
+				dst[y * width + x] = sum / (sx * sy);
+			}
+		return dst;
+	}
+
+	@Test
+	public void equalsAreaAverage() {
+		for (final int[] size : SIZES) {
+			final FloatArray2D src = noise(size[0], size[1], size[0] * size[1]);
+			final double[] expected = reference(src, size[2], size[3]);
+			final FloatArray2D dst = new FloatArray2D(size[2], size[3]);
+			FloatArray2DScaleOctave.downscale(TestImages.copy(src), dst);
+			final FloatArray2D streamed = new FloatArray2D(size[2], size[3]);
+			FloatArray2DScaleOctave.downscale(new FloatArray2DImageSource(src), streamed);
+			assertEquals(size[2] * size[3], dst.data.length);
+			for (int i = 0; i < expected.length; ++i) {
+				final String at = size[0] + "x" + size[1] + " to " + size[2] + "x" + size[3] + " at " + i;
+				assertEquals(at, expected[i], dst.data[i], EPSILON);
+				assertEquals(at, expected[i], streamed.data[i], EPSILON);
+			}
+		}
+	}
+
+	@Test
+	public void constantIsPreserved() {
+		for (final int[] size : SIZES) {
+			final FloatArray2D src = new FloatArray2D(size[0], size[1]);
+			Arrays.fill(src.data, 0.3f);
+			final FloatArray2D dst = new FloatArray2D(size[2], size[3]);
+			FloatArray2DScaleOctave.downscale(src, dst);
+			for (final float f : dst.data)
+				assertEquals(0.3f, f, EPSILON);
+		}
+	}
+
+	@Test
+	public void weightsCoverTheSource() {
+		for (int n = 1; n <= 40; ++n)
+			for (int m = 1; m <= n; ++m) {
+				final FloatArray2DScaleOctave.AreaWeights w = new FloatArray2DScaleOctave.AreaWeights(n, m);
+				final double[] coverage = new double[n];
+				for (int i = 0; i < m; ++i) {
+					double sum = 0;
+					for (int j = 0; j < w.count[i]; ++j) {
+						sum += w.weights[w.offset[i] + j];
+						coverage[w.start[i] + j] += w.weights[w.offset[i] + j];
+					}
+					assertEquals(n + " to " + m + ", sum of weights of " + i, 1, sum, EPSILON);
+					// consecutive pixels cover adjacent or shared source pixels
+					if (i > 0) {
+						final int end = w.start[i - 1] + w.count[i - 1];
+						assertTrue(n + " to " + m + ", start of " + i, w.start[i] == end || w.start[i] == end - 1);
+					}
+				}
+				assertEquals(n + " to " + m + ", last covered pixel", n, w.start[m - 1] + w.count[m - 1]);
+				// every source pixel contributes m / n in total
+				for (int p = 0; p < n; ++p)
+					assertEquals(n + " to " + m + ", coverage of " + p, (double) m / n, coverage[p], EPSILON);
+			}
+	}
+}
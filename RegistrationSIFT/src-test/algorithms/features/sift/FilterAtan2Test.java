@@ -0,0 +1,87 @@
+package algorithms.features.sift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Error of {@link Filter#atan2(float, float, GradientAccuracy)} against
+ * {@link Math#atan2(double, double)} over the full angle range.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class FilterAtan2Test {
+	/**
+	 * angles sampled on [-pi, pi]
+	 */
+	final static private int ANGLES = 1 << 20;
+
+	/**
+	 * gradient amplitudes, the error must not depend on them
+	 */
+	final static private float[] RADII = { 1e-6f, 1e-3f, 1, 255, 1e6f };
+
+	/**
+	 * @return maximal absolute error in rad over all sampled angles and radii,
+	 *         and the signed zeros and axes
+	 */
+	final static private double maxError(final GradientAccuracy accuracy) {
+		double max = 0;
+		for (final float r : RADII)
+			for (int i = 0; i <= ANGLES; ++i) {
+				final double angle = -Math.PI + 2 * Math.PI * i / ANGLES;
+				final float x = (float) (r * Math.cos(angle));
+				final float y = (float) (r * Math.sin(angle));
+				max = Math.max(max, error(y, x, accuracy));
+			}
+		final float[] values = { 0, -0f, 1, -1, Float.MIN_VALUE, -Float.MIN_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (final float y : values)
+			for (final float x : values)
+				max = Math.max(max, error(y, x, accuracy));
+		return max;
+	}
+
+	final static private double error(final float y, final float x, final GradientAccuracy accuracy) {
+		return Math.abs(Filter.atan2(y, x, accuracy) - Math.atan2(y, x));
+	}
+
+	@Test
+	public void exactIsMathAtan2() {
+		for (final float r : RADII)
+			for (int i = 0; i <= ANGLES; i += 7) {
+				final double angle = -Math.PI + 2 * Math.PI * i / ANGLES;
+				final float x = (float) (r * Math.cos(angle));
+				final float y = (float) (r * Math.sin(angle));
+				assertEquals((float) Math.atan2(y, x), Filter.atan2(y, x, GradientAccuracy.EXACT), 0);
+			}
+	}
+
+	@Test
+	public void floatErrorIsBounded() {
+		final double error = maxError(GradientAccuracy.FLOAT);
+		assertTrue("FLOAT error " + error, error < 2.5e-7);
+	}
+
+	@Test
+	public void fastErrorIsBounded() {
+		final double error = maxError(GradientAccuracy.FAST);
+		assertTrue("FAST error " + error, error < 1.2e-5);
+	}
+
+	@Test
+	public void negativeZeroOnTheNegativeAxisIsMinusPi() {
+		for (final GradientAccuracy accuracy : GradientAccuracy.values()) {
+			assertEquals(accuracy.name(), (float) -Math.PI, Filter.atan2(-0f, -1, accuracy), 0);
+			assertEquals(accuracy.name(), (float) Math.PI, Filter.atan2(0f, -1, accuracy), 0);
+		}
+	}
+
+	@Test
+	public void nanIsPropagated() {
+		for (final GradientAccuracy accuracy : GradientAccuracy.values()) {
+			assertTrue(Float.isNaN(Filter.atan2(Float.NaN, 1, accuracy)));
+			assertTrue(Float.isNaN(Filter.atan2(1, Float.NaN, accuracy)));
+		}
+	}
+}
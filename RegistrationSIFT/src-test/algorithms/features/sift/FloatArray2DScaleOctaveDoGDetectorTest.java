@@ -0,0 +1,115 @@
+package algorithms.features.sift;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The fused build of {@link FloatArray2DScaleOctaveDoGDetector#runFused(FloatArray2DScaleOctave)},
+ * detecting in a ring of three difference of gaussian images, must find the
+ * same candidates in the same order as
+ * {@link FloatArray2DScaleOctave#build()} followed by
+ * {@link FloatArray2DScaleOctaveDoGDetector#run(FloatArray2DScaleOctave)}.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class FloatArray2DScaleOctaveDoGDetectorTest {
+	final static private int STEPS = 3;
+	final static private float SIGMA = 1.6f;
+
+	/**
+	 * distance in px to the image border under which a candidate counts as
+	 * near the border
+	 */
+	final static private int BORDER = 8;
+
+	final static private FloatArray2DScaleOctave octave(final FloatArray2D image, final boolean cascade,
+	    final boolean masked) {
+		final FloatArray2DScaleOctave octave = new FloatArray2DScaleOctave(TestImages.copy(image), STEPS, SIGMA);
+		octave.setCascade(cascade);
+		if (masked)
+			octave.setMasks(mask(image), null);
+		octave.buildStub();
+		return octave;
+	}
+
+	/**
+	 * @return a detection mask skipping the flat tiles of an image
+	 */
+	final static private TileMask mask(final FloatArray2D image) {
+		return TileMask.create(image, 32, 0.002f);
+	}
+
+	final static private List<double[]> separate(final FloatArray2D image, final boolean cascade,
+	    final boolean masked) {
+		final FloatArray2DScaleOctave octave = octave(image, cascade, masked);
+		octave.build();
+		final FloatArray2DScaleOctaveDoGDetector dog = new FloatArray2DScaleOctaveDoGDetector();
+		dog.run(octave);
+		return dog.getCandidates();
+	}
+
+	final static private List<double[]> fused(final FloatArray2D image, final boolean cascade,
+	    final boolean masked) {
+		final FloatArray2DScaleOctave octave = octave(image, cascade, masked);
+		final FloatArray2DScaleOctaveDoGDetector dog = new FloatArray2DScaleOctaveDoGDetector();
+		dog.runFused(octave);
+		return dog.getCandidates();
+	}
+
+	final static private void assertSameCandidates(final List<double[]> expected, final List<double[]> actual) {
+		assertEquals("number of candidates", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); ++i)
+			assertArrayEquals("candidate " + i, expected.get(i), actual.get(i), 0);
+	}
+
+	/**
+	 * assert that the candidates cover all scales of the octave and the
+	 * borders of the image
+	 */
+	final static private void assertCoverage(final List<double[]> candidates, final FloatArray2D image) {
+		final int[] scales = new int[STEPS + 2];
+		int border = 0;
+		for (final double[] c : candidates) {
+			++scales[Math.max(0, Math.min(STEPS + 1, (int) Math.round(c[2])))];
+			if (c[0] < BORDER || c[1] < BORDER || c[0] >= image.width - BORDER || c[1] >= image.height - BORDER)
+				++border;
+		}
+		for (int i = 1; i <= STEPS; ++i)
+			assertTrue("no candidate in scale " + i, scales[i] > 0);
+		assertTrue("no candidate near the border", border > 0);
+	}
+
+	@Test
+	public void sameCandidatesAsSeparateBuild() {
+		for (long seed = 4; seed < 7; ++seed) {
+			// odd sizes
+			final FloatArray2D image = TestImages.blobs(301 + (int) seed, 203 + 2 * (int) seed, seed);
+			final List<double[]> expected = separate(image, false, false);
+			assertCoverage(expected, image);
+			assertSameCandidates(expected, fused(image, false, false));
+		}
+	}
+
+	@Test
+	public void sameCandidatesInCascadeMode() {
+		final FloatArray2D image = TestImages.blobs(320, 240, 7);
+		final List<double[]> expected = separate(image, true, false);
+		assertCoverage(expected, image);
+		assertSameCandidates(expected, fused(image, true, false));
+	}
+
+	@Test
+	public void sameCandidatesWithDetectionMask() {
+		final FloatArray2D image = TestImages.blobs(320, 240, 8);
+		final TileMask mask = mask(image);
+		assertTrue(mask.countActive() < mask.size());
+		final List<double[]> expected = separate(image, false, true);
+		assertTrue(!expected.isEmpty());
+		assertSameCandidates(expected, fused(image, false, true));
+	}
+}
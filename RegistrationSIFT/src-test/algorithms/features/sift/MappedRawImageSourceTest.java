@@ -0,0 +1,128 @@
+package algorithms.features.sift;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import algorithms.features.sift.MappedRawImageSource.PixelType;
+
+/**
+ * {@link MappedRawImageSource} on small raw files with a header, read in
+ * bands of a few rows.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class MappedRawImageSourceTest {
+	final static private int WIDTH = 7;
+	final static private int HEIGHT = 10;
+
+	/**
+	 * bytes before the first pixel, not a multiple of the pixel size
+	 */
+	final static private int OFFSET = 13;
+
+	/**
+	 * rows per band, the last band is incomplete
+	 */
+	final static private int BAND_HEIGHT = 3;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * @return pixel values representable in the given type, UINT16 values use
+	 *         the full unsigned range
+	 */
+	final static private float[] pixels(final PixelType type, final long seed) {
+		final Random random = new Random(seed);
+		final float[] pixels = new float[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; ++i)
+			pixels[i] = type == PixelType.FLOAT32 ? (float) random.nextGaussian() * 1000 : random.nextInt(1 << 16);
+		return pixels;
+	}
+
+	/**
+	 * write the pixels after a header of {@link #OFFSET} bytes
+	 */
+	final private File write(final float[] pixels, final PixelType type, final ByteOrder order) throws IOException {
+		final ByteBuffer bytes = ByteBuffer.allocate(OFFSET + pixels.length * type.bytes).order(order);
+		for (int i = 0; i < OFFSET; ++i)
+			bytes.put((byte) 0x7f);
+		for (final float f : pixels)
+			if (type == PixelType.FLOAT32)
+				bytes.putFloat(f);
+			else
+				bytes.putShort((short) f);
+		final File file = folder.newFile();
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes.array());
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	final private void assertReads(final PixelType type, final ByteOrder order) throws IOException {
+		final float[] pixels = pixels(type, order.hashCode());
+		final File file = write(pixels, type, order);
+		final MappedRawImageSource banded = new MappedRawImageSource(file, WIDTH, HEIGHT, type, order, OFFSET,
+		    BAND_HEIGHT);
+		final MappedRawImageSource whole = new MappedRawImageSource(file, WIDTH, HEIGHT, type, order, OFFSET);
+		try {
+			assertEquals(WIDTH, banded.getWidth());
+			assertEquals(HEIGHT, banded.getHeight());
+			final float[] row = new float[WIDTH + 2];
+			// bottom up, so that each band is first mapped at its last row
+			for (int y = HEIGHT - 1; y >= 0; --y)
+				for (final MappedRawImageSource src : new MappedRawImageSource[] { banded, whole }) {
+					src.readRow(0, y, WIDTH, row, 0);
+					for (int x = 0; x < WIDTH; ++x)
+						assertEquals(type + " " + order + " at " + x + ", " + y, pixels[y * WIDTH + x], row[x], 0);
+					// part of a row into an offset of the target
+					src.readRow(2, y, 4, row, 1);
+					for (int x = 0; x < 4; ++x)
+						assertEquals(type + " " + order + " at " + (x + 2) + ", " + y, pixels[y * WIDTH + x + 2], row[x + 1], 0);
+				}
+		} finally {
+			banded.close();
+			whole.close();
+		}
+	}
+
+	@Test
+	public void float32BigEndian() throws IOException {
+		assertReads(PixelType.FLOAT32, ByteOrder.BIG_ENDIAN);
+	}
+
+	@Test
+	public void float32LittleEndian() throws IOException {
+		assertReads(PixelType.FLOAT32, ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Test
+	public void uint16BigEndian() throws IOException {
+		assertReads(PixelType.UINT16, ByteOrder.BIG_ENDIAN);
+	}
+
+	@Test
+	public void uint16LittleEndian() throws IOException {
+		assertReads(PixelType.UINT16, ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Test(expected = IOException.class)
+	public void tooSmallFile() throws IOException {
+		final File file = write(pixels(PixelType.UINT16, 0), PixelType.UINT16, ByteOrder.BIG_ENDIAN);
+		// one row more than written
+		new MappedRawImageSource(file, WIDTH, HEIGHT + 1, PixelType.UINT16, ByteOrder.BIG_ENDIAN, OFFSET).close();
+	}
+}
@@ -0,0 +1,84 @@
+package algorithms.features.sift;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * {@link RecursiveGaussian} against the FIR blur of
+ * {@link Filter#convolveSeparable(FloatArray2D, float[], float[], FloatArray2D, FloatArray2D)}
+ * for the sigmas of the scale octaves of {@link FloatArray2DSIFT}.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class RecursiveGaussianTest {
+	final static private float[] INITIAL_SIGMAS = { 1.2f, 1.6f, 2.0f };
+
+	/**
+	 * @return uniform noise in [0, 1]
+	 */
+	final static private FloatArray2D noise(final int width, final int height, final long seed) {
+		final Random random = new Random(seed);
+		final FloatArray2D image = new FloatArray2D(width, height);
+		for (int i = 0; i < image.data.length; ++i)
+			image.data[i] = random.nextFloat();
+		return image;
+	}
+
+	/**
+	 * Assert the tolerances for the differences to the first image and the
+	 * increments between the images of an octave, computed like
+	 * {@link FloatArray2DSIFT#setInitialSigma(float)} and
+	 * {@link FloatArray2DScaleOctave#setCascade(boolean)} do.
+	 */
+	final static private void assertWithinTolerance(final FloatArray2D image) {
+		for (final float initialSigma : INITIAL_SIGMAS)
+			for (int steps = 2; steps <= 6; ++steps)
+				for (int i = 1; i < steps + 3; ++i) {
+					final float sigma = initialSigma * (float) Math.pow(2.0f, (float) i / (float) steps);
+					final float previous = initialSigma * (float) Math.pow(2.0f, (float) (i - 1) / (float) steps);
+					assertWithinTolerance(image, (float) Math.sqrt(sigma * sigma - initialSigma * initialSigma));
+					assertWithinTolerance(image, (float) Math.sqrt(sigma * sigma - previous * previous));
+				}
+	}
+
+	final static private void assertWithinTolerance(final FloatArray2D image, final float sigma) {
+		if (sigma < RecursiveGaussian.MIN_SIGMA)
+			return;
+		final float[] kernel = Filter.createGaussianKernel(sigma, true);
+		final FloatArray2D fir = Filter.convolveSeparable(image, kernel, kernel, null, null);
+		final FloatArray2D iir = new RecursiveGaussian(sigma).blur(image, null, null);
+		double max = 0;
+		double sum = 0;
+		for (int i = 0; i < fir.data.length; ++i) {
+			final double d = Math.abs(fir.data[i] - iir.data[i]);
+			max = Math.max(max, d);
+			sum += d;
+		}
+		assertTrue("difference " + max + " for sigma " + sigma, max <= RecursiveGaussian.TOLERANCE);
+		assertTrue("mean difference " + sum / fir.data.length + " for sigma " + sigma,
+		    sum / fir.data.length <= RecursiveGaussian.MEAN_TOLERANCE);
+	}
+
+	@Test
+	public void blobsWithinTolerance() {
+		assertWithinTolerance(TestImages.blobs(257, 193, 5));
+	}
+
+	@Test
+	public void noiseWithinTolerance() {
+		assertWithinTolerance(noise(257, 193, 1));
+	}
+
+	@Test
+	public void constantIsPreserved() {
+		final FloatArray2D image = new FloatArray2D(64, 48);
+		Arrays.fill(image.data, 0.75f);
+		final FloatArray2D blurred = new RecursiveGaussian(2.5f).blur(image, null, null);
+		for (final float f : blurred.data)
+			assertTrue("constant blurred to " + f, Math.abs(f - 0.75f) < 1e-5f);
+	}
+}
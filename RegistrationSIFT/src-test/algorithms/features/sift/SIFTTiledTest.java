@@ -0,0 +1,97 @@
+package algorithms.features.sift;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@link SIFT#extractFeaturesTiled(ImageSource, int, int, java.util.Collection)}
+ * must find each feature of the whole image exactly once, including those in
+ * the bands where the tiles overlap.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class SIFTTiledTest {
+	/**
+	 * distance in px to a tile core border under which a feature counts as in
+	 * the overlap band
+	 */
+	final static private int BAND = 16;
+
+	/**
+	 * tolerance on the locations, shifted to the image coordinates in double
+	 */
+	final static private double EPSILON = 1e-9;
+
+	final static private List<Feature> whole(final FloatArray2D image) {
+		final List<Feature> features = new ArrayList<Feature>();
+		new SIFT(new FloatArray2DSIFT(new FloatArray2DSIFT.Param()))
+		    .extractFeatures(new FloatArray2DImageSource(TestImages.copy(image)), features);
+		return features;
+	}
+
+	final static private List<Feature> tiled(final FloatArray2D image, final int tileSize) {
+		final List<Feature> features = new ArrayList<Feature>();
+		new SIFT(new FloatArray2DSIFT(new FloatArray2DSIFT.Param()))
+		    .extractFeaturesTiled(new FloatArray2DImageSource(TestImages.copy(image)), tileSize, 3, features);
+		return features;
+	}
+
+	/**
+	 * Assert that each tiled feature equals a distinct feature of the whole
+	 * image and that none is missing.
+	 */
+	final static private void assertSameFeatures(final List<Feature> expected, final List<Feature> tiled,
+	    final int tileSize) {
+		assertEquals("number of features", expected.size(), tiled.size());
+		final boolean[] used = new boolean[expected.size()];
+		int band = 0;
+		for (final Feature f : tiled) {
+			int match = -1;
+			for (int i = 0; i < expected.size() && match < 0; ++i) {
+				final Feature e = expected.get(i);
+				if (!used[i] && e.scale == f.scale && e.orientation == f.orientation
+				    && Math.abs(e.location[0] - f.location[0]) < EPSILON && Math.abs(e.location[1] - f.location[1]) < EPSILON)
+					match = i;
+			}
+			assertTrue("duplicate or misplaced feature at " + f.location[0] + ", " + f.location[1], match >= 0);
+			used[match] = true;
+			assertArrayEquals("descriptor at " + f.location[0] + ", " + f.location[1], expected.get(match).descriptor,
+			    f.descriptor, 0);
+
+			final double x = f.location[0] % tileSize;
+			final double y = f.location[1] % tileSize;
+			if (x < BAND || x >= tileSize - BAND || y < BAND || y >= tileSize - BAND)
+				++band;
+		}
+		assertTrue("no feature in the overlap bands", band > 0);
+	}
+
+	@Test
+	public void sameFeaturesAsWholeImage() {
+		final FloatArray2D image = TestImages.blobs(600, 500, 11);
+		final List<Feature> expected = whole(image);
+		assertTrue(!expected.isEmpty());
+		assertSameFeatures(expected, tiled(image, 200), 200);
+	}
+
+	@Test
+	public void clippedTilesOfOddSize() {
+		// the last row and column of tiles are clipped by the image
+		final FloatArray2D image = TestImages.blobs(701, 389, 12);
+		final List<Feature> expected = whole(image);
+		assertTrue(!expected.isEmpty());
+		assertSameFeatures(expected, tiled(image, 128), 128);
+	}
+
+	@Test
+	public void singleTile() {
+		final FloatArray2D image = TestImages.blobs(300, 200, 13);
+		assertSameFeatures(whole(image), tiled(image, 512), 512);
+	}
+}
@@ -0,0 +1,52 @@
+package algorithms.features.sift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@link SparseGradients} against the dense gradients of
+ * {@link Filter#createGradients(FloatArray2D, TileMask, GradientAccuracy, FloatArray2D[])}.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class SparseGradientsTest {
+	@Test
+	public void tilesEqualDenseGradients() {
+		// not a multiple of the tile size, the last tiles are clipped
+		final FloatArray2D image = TestImages.blobs(100, 70, 1);
+		for (final GradientAccuracy accuracy : GradientAccuracy.values()) {
+			final FloatArray2D[] dense = Filter.createGradients(image, null, accuracy,
+			    new FloatArray2D[] { new FloatArray2D(image.width, image.height),
+			        new FloatArray2D(image.width, image.height) });
+			final SparseGradients sparse = new SparseGradients(image, accuracy);
+			for (int y = 0; y < image.height; ++y)
+				for (int x = 0; x < image.width; ++x) {
+					final float[] tile = sparse.tile(x, y);
+					final int t = SparseGradients.index(x, y);
+					final int i = y * image.width + x;
+					assertEquals(accuracy + " amplitude at " + x + ", " + y, dense[0].data[i], tile[t], 0);
+					assertEquals(accuracy + " orientation at " + x + ", " + y, dense[1].data[i], tile[t + 1], 0);
+				}
+			assertEquals(4 * 3, sparse.countTiles());
+		}
+	}
+
+	@Test
+	public void sameFeaturesAsDenseGradients() {
+		final FloatArray2D image = TestImages.blobs(300, 240, 2);
+		for (final GradientAccuracy accuracy : GradientAccuracy.values()) {
+			final FloatArray2DSIFT.Param p = new FloatArray2DSIFT.Param();
+			p.gradientAccuracy = accuracy;
+			p.sparseGradients = false;
+			final List<Feature> dense = TestImages.extract(p, image);
+			p.sparseGradients = true;
+			final List<Feature> sparse = TestImages.extract(p, image);
+			assertFalse(dense.isEmpty());
+			TestImages.assertSameFeatures(dense, sparse);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package algorithms.features.sift;
+
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The octaves run as a graph of concurrent tasks, {@link FloatArray2DSIFT.Param#taskGraph},
+ * must find the same features in the same order as the sequential run.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class TaskGraphTest {
+	final static private FloatArray2D IMAGE = TestImages.blobs(640, 480, 3);
+
+	final static private void assertSameAsSequential(final FloatArray2DSIFT.Param p) {
+		p.taskGraph = false;
+		final List<Feature> sequential = TestImages.extract(p, IMAGE);
+		p.taskGraph = true;
+		final List<Feature> graph = TestImages.extract(p, IMAGE);
+		assertFalse(sequential.isEmpty());
+		TestImages.assertSameFeatures(sequential, graph);
+	}
+
+	@Test
+	public void defaultParameters() {
+		assertSameAsSequential(new FloatArray2DSIFT.Param());
+	}
+
+	@Test
+	public void sparseGradients() {
+		final FloatArray2DSIFT.Param p = new FloatArray2DSIFT.Param();
+		p.sparseGradients = true;
+		assertSameAsSequential(p);
+	}
+
+	@Test
+	public void cascadeAndFusedDoG() {
+		final FloatArray2DSIFT.Param p = new FloatArray2DSIFT.Param();
+		p.cascade = true;
+		p.fusedDoG = true;
+		assertSameAsSequential(p);
+	}
+
+	@Test
+	public void backgroundTiles() {
+		final FloatArray2DSIFT.Param p = new FloatArray2DSIFT.Param();
+		p.backgroundThreshold = 0.001f;
+		assertSameAsSequential(p);
+	}
+
+	@Test
+	public void keptOctavesAndArena() {
+		final FloatArray2DSIFT.Param p = new FloatArray2DSIFT.Param();
+		p.keepOctaves = true;
+		p.arenaCapacity = 64 << 20;
+		assertSameAsSequential(p);
+	}
+}
@@ -0,0 +1,106 @@
+package algorithms.features.sift;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic images and feature comparisons shared by the tests.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+final class TestImages {
+	private TestImages() {
+	}
+
+	/**
+	 * Image in [0, 1] of gaussian blobs of sigma 1 to 12 px, so that features
+	 * are found in all scales of the first octaves, scattered over the whole
+	 * image and lined up along its borders, on a slightly noisy background.
+	 *
+	 * @param width
+	 * @param height
+	 * @param seed
+	 *
+	 * @return the image
+	 */
+	final static FloatArray2D blobs(final int width, final int height, final long seed) {
+		final Random random = new Random(seed);
+		final FloatArray2D image = new FloatArray2D(width, height);
+		final int blobs = Math.max(8, width * height / 600);
+		for (int b = 0; b < blobs; ++b) {
+			// centers up to 2 px outside of the image
+			final double cx = random.nextDouble() * (width + 4) - 2;
+			final double cy = random.nextDouble() * (height + 4) - 2;
+			addBlob(image, cx, cy, 1 + random.nextDouble() * 11, random.nextDouble() - 0.3);
+		}
+		// blobs of sigma 3 to 4.5 px centered 3 to 6 px inside of each border
+		for (int x = 16; x < width - 16; x += 32) {
+			addBlob(image, x, 3 + random.nextInt(4), 3 + 1.5 * random.nextDouble(), 1 + random.nextDouble());
+			addBlob(image, x, height - 4 - random.nextInt(4), 3 + 1.5 * random.nextDouble(), 1 + random.nextDouble());
+		}
+		for (int y = 16; y < height - 16; y += 32) {
+			addBlob(image, 3 + random.nextInt(4), y, 3 + 1.5 * random.nextDouble(), 1 + random.nextDouble());
+			addBlob(image, width - 4 - random.nextInt(4), y, 3 + 1.5 * random.nextDouble(), 1 + random.nextDouble());
+		}
+		float min = Float.MAX_VALUE;
+		float max = -Float.MAX_VALUE;
+		for (int i = 0; i < image.data.length; ++i) {
+			image.data[i] += 0.01f * random.nextFloat();
+			min = Math.min(min, image.data[i]);
+			max = Math.max(max, image.data[i]);
+		}
+		for (int i = 0; i < image.data.length; ++i)
+			image.data[i] = (image.data[i] - min) / (max - min);
+		return image;
+	}
+
+	/**
+	 * add a gaussian blob of sigma s and amplitude a centered at (cx, cy)
+	 */
+	final static private void addBlob(final FloatArray2D image, final double cx, final double cy, final double s,
+	    final double a) {
+		final int x0 = Math.max(0, (int) (cx - 4 * s));
+		final int x1 = Math.min(image.width, (int) (cx + 4 * s) + 1);
+		final int y0 = Math.max(0, (int) (cy - 4 * s));
+		final int y1 = Math.min(image.height, (int) (cy + 4 * s) + 1);
+		for (int y = y0; y < y1; ++y)
+			for (int x = x0; x < x1; ++x)
+				image.data[y * image.width + x] += a * Math.exp(-((x - cx) * (x - cx) + (y - cy) * (y - cy)) / (2 * s * s));
+	}
+
+	/**
+	 * @return a copy of an image
+	 */
+	final static FloatArray2D copy(final FloatArray2D image) {
+		return new FloatArray2D(image.data.clone(), image.width, image.height);
+	}
+
+	/**
+	 * @return the features of all octaves of an image, the image is not
+	 *         modified
+	 */
+	final static List<Feature> extract(final FloatArray2DSIFT.Param p, final FloatArray2D image) {
+		final FloatArray2DSIFT sift = new FloatArray2DSIFT(p);
+		sift.init(copy(image));
+		return sift.run();
+	}
+
+	/**
+	 * Assert that two lists have the same features in the same order, with
+	 * identical locations, scales, orientations and descriptors.
+	 */
+	final static void assertSameFeatures(final List<Feature> expected, final List<Feature> actual) {
+		assertEquals("number of features", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			final Feature e = expected.get(i);
+			final Feature a = actual.get(i);
+			assertArrayEquals("location of feature " + i, e.location, a.location, 0);
+			assertEquals("scale of feature " + i, e.scale, a.scale, 0);
+			assertEquals("orientation of feature " + i, e.orientation, a.orientation, 0);
+			assertArrayEquals("descriptor of feature " + i, e.descriptor, a.descriptor, 0);
+		}
+	}
+}
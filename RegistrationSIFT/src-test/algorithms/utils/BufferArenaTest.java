@@ -0,0 +1,78 @@
+package algorithms.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Buckets and byte capacity of {@link BufferArena}.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class BufferArenaTest {
+	@Test
+	public void releasedArrayIsAcquiredAgain() {
+		final BufferArena arena = new BufferArena(1 << 20);
+		final float[] a = arena.acquire(100);
+		assertEquals(100, a.length);
+		arena.release(a);
+		assertEquals(400, arena.getPooledBytes());
+		assertSame(a, arena.acquire(100));
+		assertEquals(0, arena.getPooledBytes());
+		// the bucket is empty again
+		assertNotSame(a, arena.acquire(100));
+	}
+
+	@Test
+	public void bucketsHaveExactLengths() {
+		final BufferArena arena = new BufferArena(1 << 20);
+		final float[] a = new float[100];
+		final float[] b = new float[101];
+		arena.release(a);
+		arena.release(b);
+		assertEquals(99, arena.acquire(99).length);
+		assertEquals(804, arena.getPooledBytes());
+		assertSame(b, arena.acquire(101));
+		assertSame(a, arena.acquire(100));
+	}
+
+	@Test
+	public void capacityInBytesIsNotExceeded() {
+		// room for two arrays of 100 floats but not for three
+		final BufferArena arena = new BufferArena(1000);
+		assertEquals(1000, arena.getCapacity());
+		final float[] a = new float[100];
+		final float[] b = new float[100];
+		final float[] c = new float[100];
+		arena.release(a);
+		arena.release(b);
+		arena.release(c);
+		assertEquals(800, arena.getPooledBytes());
+		// an array of 50 floats still fits
+		final float[] d = new float[50];
+		arena.release(d);
+		assertEquals(1000, arena.getPooledBytes());
+		assertSame(d, arena.acquire(50));
+		final float[] first = arena.acquire(100);
+		final float[] second = arena.acquire(100);
+		assertEquals(0, arena.getPooledBytes());
+		assertNotSame(c, first);
+		assertNotSame(c, second);
+		// acquiring makes room again
+		arena.release(c);
+		assertSame(c, arena.acquire(100));
+	}
+
+	@Test
+	public void clearDropsAllArrays() {
+		final BufferArena arena = new BufferArena(1 << 20);
+		final float[] a = new float[100];
+		arena.release(a);
+		arena.release(null);
+		arena.clear();
+		assertEquals(0, arena.getPooledBytes());
+		assertNotSame(a, arena.acquire(100));
+	}
+}
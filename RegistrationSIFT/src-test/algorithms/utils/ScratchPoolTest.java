@@ -0,0 +1,74 @@
+package algorithms.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Buckets and size limit of the shared {@link ScratchPool}. The lengths are
+ * unusual so that no other user of the pool shares their buckets.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class ScratchPoolTest {
+	@Before
+	@After
+	public void clear() {
+		ScratchPool.clear();
+	}
+
+	@Test
+	public void releasedArrayIsAcquiredAgain() {
+		final float[] a = ScratchPool.acquire(12347);
+		assertEquals(12347, a.length);
+		ScratchPool.release(a);
+		assertSame(a, ScratchPool.acquire(12347));
+		// the bucket is empty again
+		assertNotSame(a, ScratchPool.acquire(12347));
+	}
+
+	@Test
+	public void bucketsHaveExactLengths() {
+		final float[] a = new float[12347];
+		final float[] b = new float[12348];
+		ScratchPool.release(a);
+		ScratchPool.release(b);
+		assertEquals(12346, ScratchPool.acquire(12346).length);
+		assertSame(b, ScratchPool.acquire(12348));
+		assertSame(a, ScratchPool.acquire(12347));
+	}
+
+	@Test
+	public void atMostMaxPerSizeArraysAreKept() {
+		final Set<float[]> released = Collections.newSetFromMap(new IdentityHashMap<float[], Boolean>());
+		for (int i = 0; i < ScratchPool.MAX_PER_SIZE + 5; ++i) {
+			final float[] a = new float[12347];
+			released.add(a);
+			ScratchPool.release(a);
+		}
+		int reused = 0;
+		for (int i = 0; i < ScratchPool.MAX_PER_SIZE + 5; ++i)
+			if (released.contains(ScratchPool.acquire(12347)))
+				++reused;
+		// softly referenced arrays may have been collected in between
+		assertTrue("reused " + reused, reused <= ScratchPool.MAX_PER_SIZE);
+	}
+
+	@Test
+	public void clearDropsAllArrays() {
+		final float[] a = new float[12347];
+		ScratchPool.release(a);
+		ScratchPool.release(null);
+		ScratchPool.clear();
+		assertNotSame(a, ScratchPool.acquire(12347));
+	}
+}
@@ -0,0 +1,140 @@
+package algorithms.features.sift;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link VectorBackend} on the Java Vector API (jdk.incubator.vector).
+ *
+ * Each lane sums its terms in the same order as the scalar loops of
+ * {@link Filter} and {@link FloatArray2DScaleOctave}, so both backends produce
+ * identical images. Remaining pixels that do not fill a vector are processed
+ * by scalar loops.
+ *
+ * This class requires Java 16 or later and the JVM option
+ * <code>--add-modules jdk.incubator.vector</code>, it is loaded by reflection
+ * in {@link Filter#VECTOR}.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+final public class VectorApiBackend implements VectorBackend {
+	final static private VectorSpecies<Float> S = FloatVector.SPECIES_PREFERRED;
+
+	/**
+	 * gather offsets of the even samples of 2 * S.length() consecutive ones
+	 */
+	final static private int[] EVEN_INDEX = new int[S.length()];
+	static {
+		for (int i = 0; i < EVEN_INDEX.length; ++i)
+			EVEN_INDEX[i] = 2 * i;
+	}
+
+	/**
+	 * @return whether {@link Filter#convolveRow(float[], int, float[], float[], int)}
+	 *         uses a fully unrolled loop for this kernel length, which sums the
+	 *         folded taps from the center to the border instead of in groups of
+	 *         four
+	 */
+	final static private boolean isUnrolled(final int length) {
+		return length == 9 || length == 11 || length == 13 || length == 17;
+	}
+
+	@Override
+	public void convolveRow(final float[] row, final int width, final float[] h, final float[] dst, final int o) {
+		final int hl = h.length / 2;
+		final int l2 = 2 * hl;
+		final boolean unrolled = isUnrolled(h.length);
+		final int bound = S.loopBound(width);
+
+		int x = 0;
+		for (; x < bound; x += S.length()) {
+			FloatVector acc = FloatVector.fromArray(S, row, x + hl).mul(h[hl]);
+			int k;
+			if (unrolled)
+				for (k = hl - 1; k >= 0; --k)
+					acc = acc.add(FloatVector.fromArray(S, row, x + k).add(FloatVector.fromArray(S, row, x + l2 - k)).mul(h[k]));
+			else {
+				for (k = 0; k + 4 <= hl; k += 4) {
+					final int a = x + k;
+					final int b = x + l2 - k;
+					acc = acc.add(FloatVector.fromArray(S, row, a).add(FloatVector.fromArray(S, row, b)).mul(h[k])
+					    .add(FloatVector.fromArray(S, row, a + 1).add(FloatVector.fromArray(S, row, b - 1)).mul(h[k + 1]))
+					    .add(FloatVector.fromArray(S, row, a + 2).add(FloatVector.fromArray(S, row, b - 2)).mul(h[k + 2]))
+					    .add(FloatVector.fromArray(S, row, a + 3).add(FloatVector.fromArray(S, row, b - 3)).mul(h[k + 3])));
+				}
+				for (; k < hl; ++k)
+					acc = acc.add(FloatVector.fromArray(S, row, x + k).add(FloatVector.fromArray(S, row, x + l2 - k)).mul(h[k]));
+			}
+			acc.intoArray(dst, o + x);
+		}
+
+		for (; x < width; ++x) {
+			float acc = h[hl] * row[x + hl];
+			int k;
+			if (unrolled)
+				for (k = hl - 1; k >= 0; --k)
+					acc += h[k] * (row[x + k] + row[x + l2 - k]);
+			else {
+				for (k = 0; k + 4 <= hl; k += 4) {
+					final int a = x + k;
+					final int b = x + l2 - k;
+					acc += h[k] * (row[a] + row[b]) + h[k + 1] * (row[a + 1] + row[b - 1]) + h[k + 2] * (row[a + 2] + row[b - 2])
+					    + h[k + 3] * (row[a + 3] + row[b - 3]);
+				}
+				for (; k < hl; ++k)
+					acc += h[k] * (row[x + k] + row[x + l2 - k]);
+			}
+			dst[o + x] = acc;
+		}
+	}
+
+	@Override
+	public void convolveColumns(final float[] in, final int[] ro, final int y, final float[] v, final float[] out,
+	    final int r, final int x0, final int x1) {
+		final int vl = v.length / 2;
+		final int rc = ro[y + vl];
+		final float c = v[vl];
+		final int bound = x0 + S.loopBound(x1 - x0);
+
+		int x = x0;
+		for (; x < bound; x += S.length()) {
+			FloatVector acc = FloatVector.fromArray(S, in, rc + x).mul(c);
+			for (int k = 0; k < vl; ++k)
+				acc = acc.add(FloatVector.fromArray(S, in, ro[y + k] + x)
+				    .add(FloatVector.fromArray(S, in, ro[y + 2 * vl - k] + x)).mul(v[k]));
+			acc.intoArray(out, r + x);
+		}
+
+		for (; x < x1; ++x) {
+			float acc = c * in[rc + x];
+			for (int k = 0; k < vl; ++k)
+				acc += v[k] * (in[ro[y + k] + x] + in[ro[y + 2 * vl - k] + x]);
+			out[r + x] = acc;
+		}
+	}
+
+	@Override
+	public void difference(final float[] a, final float[] b, final float s, final float[] dst, final int start,
+	    final int end) {
+		final int bound = start + S.loopBound(end - start);
+
+		int i = start;
+		for (; i < bound; i += S.length())
+			FloatVector.fromArray(S, b, i).sub(FloatVector.fromArray(S, a, i)).mul(s).intoArray(dst, i);
+		for (; i < end; ++i)
+			dst[i] = (b[i] - a[i]) * s;
+	}
+
+	@Override
+	public void downsampleRow(final float[] src, final int so, final float[] dst, final int o, final int n) {
+		final int bound = S.loopBound(n);
+
+		int x = 0;
+		for (; x < bound; x += S.length()) {
+			final int s = so + 2 * x;
+			FloatVector.fromArray(S, src, s, EVEN_INDEX, 0).intoArray(dst, o + x);
+		}
+		for (; x < n; ++x)
+			dst[o + x] = src[so + 2 * x];
+	}
+}
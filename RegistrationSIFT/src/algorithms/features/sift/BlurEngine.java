@@ -0,0 +1,19 @@
+package algorithms.features.sift;
+
+/**
+ * Implementation of the gaussian blur building the scales of an octave.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public enum BlurEngine {
+	/**
+	 * Separable convolution with gaussian kernels truncated at 3 sigma, the cost
+	 * per pixel grows linearly with sigma.
+	 */
+	FIR,
+	/**
+	 * Recursive approximation of the gaussian by {@link RecursiveGaussian}, the
+	 * cost per pixel does not depend on sigma.
+	 */
+	RECURSIVE
+}
@@ -0,0 +1,53 @@
+package algorithms.features.sift;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owner of {@link DirectFloatArray2D}s whose memory is freed at once, e.g. the
+ * images of an off-heap scale space. Allocating from an arena is thread safe.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class DirectArena implements Closeable {
+	final private List<DirectFloatArray2D> arrays = new ArrayList<DirectFloatArray2D>();
+	private boolean closed = false;
+
+	/**
+	 * @param width
+	 * @param height
+	 *
+	 * @return a new array owned by the arena, its content is undefined
+	 */
+	public synchronized DirectFloatArray2D allocate(final int width, final int height) {
+		if (closed)
+			throw new IllegalStateException("The arena is closed");
+		final DirectFloatArray2D array = new DirectFloatArray2D(width, height);
+		arrays.add(array);
+		return array;
+	}
+
+	/**
+	 * @return number of bytes held by the open arrays of the arena
+	 */
+	public synchronized long getAllocatedBytes() {
+		long n = 0;
+		for (final DirectFloatArray2D array : arrays)
+			if (!array.isClosed())
+				n += 4 * array.size();
+		return n;
+	}
+
+	/**
+	 * Free all arrays of the arena, they must not be used afterwards, and no
+	 * array can be allocated anymore.
+	 */
+	@Override
+	public synchronized void close() {
+		for (final DirectFloatArray2D array : arrays)
+			array.close();
+		arrays.clear();
+		closed = true;
+	}
+}
@@ -0,0 +1,251 @@
+package algorithms.features.sift;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import algorithms.utils.Parallel;
+
+/**
+ * 2d float array stored outside of the heap in direct buffers and indexed by
+ * long, for planes exceeding the 2^31 values of a {@link FloatArray2D}.
+ *
+ * The values are stored row after row in bands of whole rows, each band in
+ * its own direct buffer smaller than 2GB. The memory is freed by
+ * {@link #close()}, or by {@link DirectArena#close()} for the arrays of an
+ * arena, instead of waiting for the garbage collector. Rows may be read and
+ * written from several threads.
+ *
+ * The scale space kernels have variants working on these arrays row by row,
+ * {@link Filter#convolveSeparable(DirectFloatArray2D, float[], float[], DirectFloatArray2D)},
+ * {@link Filter#createGradients(DirectFloatArray2D, GradientAccuracy, DirectFloatArray2D[])},
+ * {@link FloatArray2DScaleOctave#downsample(DirectFloatArray2D, DirectFloatArray2D)}
+ * and
+ * {@link FloatArray2DScaleOctave#difference(DirectFloatArray2D, DirectFloatArray2D, float, DirectFloatArray2D)}.
+ * As an {@link ImageSource}, an array can be passed to
+ * {@link SIFT#extractFeaturesTiled(ImageSource, int, int, java.util.Collection)}.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class DirectFloatArray2D implements ImageSource, Closeable {
+	/**
+	 * Maximal number of values per band
+	 */
+	final static public int MAX_BAND_SIZE = Integer.MAX_VALUE / 4;
+
+	final public int width;
+	final public int height;
+
+	/**
+	 * rows per band
+	 */
+	final private int bandHeight;
+
+	/**
+	 * values per band
+	 */
+	final private long bandSize;
+
+	private ByteBuffer[] bytes;
+	private FloatBuffer[] bands;
+
+	/**
+	 * @param width
+	 * @param height
+	 */
+	public DirectFloatArray2D(final int width, final int height) {
+		this(width, height, Math.max(1, Math.min(height, MAX_BAND_SIZE / Math.max(1, width))));
+	}
+
+	/**
+	 * @param width
+	 * @param height
+	 * @param bandHeight
+	 *          rows per band, bands must not exceed {@link #MAX_BAND_SIZE}
+	 *          values
+	 */
+	public DirectFloatArray2D(final int width, final int height, final int bandHeight) {
+		if ((long) width * bandHeight > MAX_BAND_SIZE)
+			throw new IllegalArgumentException("Bands of " + bandHeight + " rows of " + width + " px exceed "
+			    + MAX_BAND_SIZE + " values");
+		this.width = width;
+		this.height = height;
+		this.bandHeight = bandHeight;
+		bandSize = (long) width * bandHeight;
+		final int n = (height + bandHeight - 1) / bandHeight;
+		bytes = new ByteBuffer[n];
+		bands = new FloatBuffer[n];
+		for (int b = 0; b < n; ++b) {
+			final int rows = Math.min(bandHeight, height - b * bandHeight);
+			bytes[b] = ByteBuffer.allocateDirect(4 * width * rows).order(ByteOrder.nativeOrder());
+			bands[b] = bytes[b].asFloatBuffer();
+		}
+	}
+
+	/**
+	 * Read a whole source into a {@link DirectFloatArray2D}, rows are read in
+	 * parallel.
+	 *
+	 * @param src
+	 * @param dst
+	 *          target of the size of the source
+	 *
+	 * @return the filled target
+	 */
+	final static public DirectFloatArray2D read(final ImageSource src, final DirectFloatArray2D dst) {
+		Parallel.forRows(dst.width, dst.height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final float[] row = new float[dst.width];
+				for (int y = start; y < end; ++y) {
+					src.readRow(0, y, dst.width, row, 0);
+					dst.writeRow(0, y, dst.width, row, 0);
+				}
+			}
+		});
+		return dst;
+	}
+
+	/**
+	 * @return number of values
+	 */
+	final public long size() {
+		return (long) width * height;
+	}
+
+	/**
+	 * @return index of (x, y) in {@link #get(long)} and {@link #set(float, long)}
+	 */
+	final public long index(final int x, final int y) {
+		return (long) y * width + x;
+	}
+
+	final public float get(final long i) {
+		final int b = (int) (i / bandSize);
+		return bands[b].get((int) (i - b * bandSize));
+	}
+
+	final public void set(final float value, final long i) {
+		final int b = (int) (i / bandSize);
+		bands[b].put((int) (i - b * bandSize), value);
+	}
+
+	final public float get(final int x, final int y) {
+		final int b = y / bandHeight;
+		return bands[b].get((y - b * bandHeight) * width + x);
+	}
+
+	final public void set(final float value, final int x, final int y) {
+		final int b = y / bandHeight;
+		bands[b].put((y - b * bandHeight) * width + x, value);
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void readRow(final int x, final int y, final int w, final float[] dst, final int o) {
+		final int b = y / bandHeight;
+		// a view per call keeps concurrent reads independent
+		final FloatBuffer band = bands[b].duplicate();
+		band.position((y - b * bandHeight) * width + x);
+		band.get(dst, o, w);
+	}
+
+	/**
+	 * Write <code>w</code> values of row <code>y</code> starting at column
+	 * <code>x</code>.
+	 *
+	 * @param x
+	 *          first column
+	 * @param y
+	 *          row
+	 * @param w
+	 *          number of values
+	 * @param src
+	 *          source array
+	 * @param o
+	 *          offset in src
+	 */
+	public void writeRow(final int x, final int y, final int w, final float[] src, final int o) {
+		final int b = y / bandHeight;
+		final FloatBuffer band = bands[b].duplicate();
+		band.position((y - b * bandHeight) * width + x);
+		band.put(src, o, w);
+	}
+
+	/**
+	 * @return whether the memory has been freed
+	 */
+	final public synchronized boolean isClosed() {
+		return bands == null;
+	}
+
+	/**
+	 * Free the memory of the array, it must not be used afterwards. Closing an
+	 * array twice has no effect.
+	 */
+	@Override
+	public synchronized void close() {
+		if (bands == null)
+			return;
+		bands = null;
+		for (final ByteBuffer b : bytes)
+			free(b);
+		bytes = null;
+	}
+
+	/**
+	 * Cleaner of direct buffers, null if the JVM offers none, the memory is then
+	 * freed by the garbage collector.
+	 */
+	final static private Object UNSAFE;
+	final static private Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			// Java 9 and later
+			final Class<?> c = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+		} catch (final Throwable e) {
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	/**
+	 * free the memory of a direct buffer now if the JVM allows it
+	 */
+	final static private void free(final ByteBuffer buffer) {
+		try {
+			if (INVOKE_CLEANER != null)
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			else {
+				// Java 8
+				final Method cleaner = buffer.getClass().getMethod("cleaner");
+				cleaner.setAccessible(true);
+				final Object c = cleaner.invoke(buffer);
+				if (c != null)
+					c.getClass().getMethod("clean").invoke(c);
+			}
+		} catch (final Throwable e) {
+			// left to the garbage collector
+		}
+	}
+}
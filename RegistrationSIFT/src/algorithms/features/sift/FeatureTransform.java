@@ -2,11 +2,16 @@ package algorithms.features.sift;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import algorithms.models.Point;
 import algorithms.models.PointMatch;
+import algorithms.utils.Parallel;
 
+import icy.image.IcyBufferedImage;
 import icy.sequence.Sequence;
 
 /**
@@ -28,18 +33,15 @@ abstract public class FeatureTransform<T extends FloatArray2DFeatureTransform<?>
 	}
 
 	/**
-	 * Extract features from a Sequence
+	 * Extract features from the first image of a Sequence
 	 *
 	 * @param seq
 	 * @param features
 	 *          collects all features
-	 *
-	 * @return number of detected features
 	 */
 	public void extractFeatures(final Sequence seq, final Collection<Feature> features) {
-		final FloatArray2D fa = ImageArrayConverter.SequenceToFloatArray2DNormalize(seq);
-
-		t.init(fa);
+		final IcyBufferedImage im = seq.getFirstImage();
+		extractFeatures(im, ImageArrayConverter.defaultChannelWeights(im.getSizeC()), features);
 	}
 
 	final public Collection<Feature> extractFeatures(final Sequence seq) {
@@ -48,6 +50,71 @@ abstract public class FeatureTransform<T extends FloatArray2DFeatureTransform<?>
 		return features;
 	}
 
+	/**
+	 * Extract features from an image
+	 *
+	 * @param im
+	 * @param weights
+	 *          weight of each channel in the gray image features are extracted
+	 *          from
+	 * @param features
+	 *          collects all features
+	 */
+	public void extractFeatures(final IcyBufferedImage im, final float[] weights, final Collection<Feature> features) {
+		t.init(ImageArrayConverter.IcyBufferedImageToFloatArray2DNormalize(im, weights, null, null));
+		t.extractFeatures(features);
+	}
+
+	/**
+	 * @return an independent feature transform with the same parameters
+	 */
+	abstract public FeatureTransform<T> copy();
+
+	/**
+	 * Extract features from several planes of a Sequence concurrently. Each
+	 * worker task of the shared pool of {@link Parallel} processes its share of
+	 * planes with its own {@link #copy() copy} of this feature transform,
+	 * reusing its buffers from one plane to the next.
+	 *
+	 * @param seq
+	 * @param planes
+	 *          planes to process, see {@link Plane#select(Sequence, int, int, int)}
+	 * @param numThreads
+	 *          maximal number of planes processed at the same time
+	 *
+	 * @return features of each plane in the order of planes
+	 */
+	public Map<Plane, List<Feature>> extractFeatures(final Sequence seq, final List<Plane> planes,
+	    final int numThreads) {
+		final List<List<Feature>> results = new ArrayList<List<Feature>>();
+		for (int i = 0; i < planes.size(); ++i)
+			results.add(new ArrayList<Feature>());
+
+		final int n = Math.max(1, Math.min(numThreads, planes.size()));
+		final AtomicInteger next = new AtomicInteger(0);
+		final List<Runnable> workers = new ArrayList<Runnable>();
+		for (int i = 0; i < n; ++i) {
+			final FeatureTransform<T> worker = copy();
+			workers.add(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = next.getAndIncrement(); j < planes.size(); j = next.getAndIncrement()) {
+						final Plane plane = planes.get(j);
+						worker.extractFeatures(seq.getImage(plane.t, plane.z),
+						    ImageArrayConverter.channelWeights(seq.getSizeC(), plane.c), results.get(j));
+					}
+				}
+			});
+		}
+
+		Parallel.forkAll(workers);
+
+		final Map<Plane, List<Feature>> features = new LinkedHashMap<Plane, List<Feature>>();
+		for (int i = 0; i < planes.size(); ++i)
+			features.put(planes.get(i), results.get(i));
+		return features;
+	}
+
 	/**
 	 * Identify corresponding features
 	 *
@@ -1,5 +1,9 @@
 package algorithms.features.sift;
 
+import java.util.Arrays;
+
+import algorithms.utils.Parallel;
+import algorithms.utils.ScratchPool;
 import algorithms.utils.Util;
 
 /**
@@ -8,6 +12,31 @@ import algorithms.utils.Util;
  * @version 0.2b
  */
 public class Filter {
+	/**
+	 * Name of the class implementing {@link VectorBackend} with the Java Vector
+	 * API, compiled from the separate src-vector source folder.
+	 */
+	final static private String VECTOR_BACKEND = "algorithms.features.sift.VectorApiBackend";
+
+	/**
+	 * SIMD backend of the convolution and difference of gaussian loops, null if
+	 * the Vector API is not available (Java before 16 or missing
+	 * <code>--add-modules jdk.incubator.vector</code>) or disabled by setting the
+	 * system property <code>sift.vector</code> to false.
+	 */
+	final static public VectorBackend VECTOR = loadVectorBackend();
+
+	final static private VectorBackend loadVectorBackend() {
+		if (!Boolean.parseBoolean(System.getProperty("sift.vector", "true")))
+			return null;
+		try {
+			return (VectorBackend) Class.forName(VECTOR_BACKEND).getDeclaredConstructor().newInstance();
+		} catch (final Throwable e) {
+			// class missing, built for a newer Java or module not resolved
+			return null;
+		}
+	}
+
 	/**
 	 * Create a 1d-Gaussian kernel of appropriate size.
 	 *
@@ -169,29 +198,336 @@ public class Filter {
 		final FloatArray2D[] gradients = new FloatArray2D[2];
 		gradients[0] = new FloatArray2D(array.width, array.height);
 		gradients[1] = new FloatArray2D(array.width, array.height);
+		return createGradients(array, null, gradients);
+	}
+
+	/**
+	 * Create the gradients of an image in the active tiles of a mask only,
+	 * gradients of the other tiles are 0.
+	 *
+	 * @param array
+	 * @param mask
+	 *          tiles to compute, null for all
+	 *
+	 * @return 0=>amplitudes; 1=>orientations
+	 */
+	final public static FloatArray2D[] createGradients(final FloatArray2D array, final TileMask mask) {
+		final FloatArray2D[] gradients = new FloatArray2D[2];
+		gradients[0] = new FloatArray2D(array.width, array.height);
+		gradients[1] = new FloatArray2D(array.width, array.height);
+		return createGradients(array, mask, gradients);
+	}
+
+	/**
+	 * Create the gradients of an image in the active tiles of a mask into caller
+	 * supplied buffers, gradients of the other tiles are set to 0.
+	 *
+	 * @param array
+	 * @param mask
+	 *          tiles to compute, null for all
+	 * @param gradients
+	 *          0=>amplitudes; 1=>orientations, of the size of array
+	 *
+	 * @return gradients
+	 */
+	final public static FloatArray2D[] createGradients(final FloatArray2D array, final TileMask mask,
+	    final FloatArray2D[] gradients) {
+		return createGradients(array, mask, GradientAccuracy.EXACT, gradients);
+	}
+
+	/**
+	 * Create the gradients of an image in the active tiles of a mask into caller
+	 * supplied buffers, gradients of the other tiles are set to 0. Bands of rows
+	 * are processed in parallel.
+	 *
+	 * @param array
+	 * @param mask
+	 *          tiles to compute, null for all
+	 * @param accuracy
+	 *          accuracy of the orientations
+	 * @param gradients
+	 *          0=>amplitudes; 1=>orientations, of the size of array
+	 *
+	 * @return gradients
+	 */
+	final public static FloatArray2D[] createGradients(final FloatArray2D array, final TileMask mask,
+	    final GradientAccuracy accuracy, final FloatArray2D[] gradients) {
+		forGradientRows(array, mask, new GradientRow() {
+			@Override
+			public void run(final int y, final int x0, final int x1) {
+				createGradients(array, y, x0, x1, accuracy, gradients[0].data, gradients[1].data);
+			}
+		}, gradients[0].data, gradients[1].data);
+		return gradients;
+	}
+
+	/**
+	 * Create the unscaled derivatives of an image in the active tiles of a mask,
+	 * interleaved as (dx, dy) per pixel. Amplitudes and orientations are
+	 * obtained with {@link #amplitude(float, float)} and
+	 * {@link #atan2(float, float, GradientAccuracy)} where they are sampled.
+	 * Derivatives of the other tiles are set to 0. Bands of rows are processed
+	 * in parallel.
+	 *
+	 * @param array
+	 * @param mask
+	 *          tiles to compute, null for all
+	 * @param components
+	 *          target of 2 * array.width x array.height
+	 *
+	 * @return components
+	 */
+	final public static FloatArray2D createGradientComponents(final FloatArray2D array, final TileMask mask,
+	    final FloatArray2D components) {
+		forGradientRows(array, mask, new GradientRow() {
+			@Override
+			public void run(final int y, final int x0, final int x1) {
+				createGradientComponents(array, y, x0, x1, components.data);
+			}
+		}, components.data, null);
+		return components;
+	}
+
+	/**
+	 * @return the amplitude of the gradient (dx, dy)
+	 */
+	final public static float amplitude(final float dx, final float dy) {
+		return (float) Math.sqrt((double) dx * dx + (double) dy * dy);
+	}
+
+	final static private float PI = (float) Math.PI;
+	final static private float HALF_PI = (float) (Math.PI / 2);
+
+	/**
+	 * Angle of the vector (x, y) in [-pi, pi] like
+	 * {@link Math#atan2(double, double)}.
+	 *
+	 * The polynomial modes evaluate atan on [0, 1] by the approximations 4.4.47
+	 * and 4.4.49 of Abramowitz and Stegun and map it to the octant of (x, y).
+	 *
+	 * @param y
+	 * @param x
+	 * @param accuracy
+	 *
+	 * @return the angle
+	 */
+	final public static float atan2(final float y, final float x, final GradientAccuracy accuracy) {
+		final float ax = Math.abs(x);
+		final float ay = Math.abs(y);
+		if (accuracy == GradientAccuracy.EXACT || ay == 0 && ax == 0 || Float.isNaN(x + y))
+			return (float) Math.atan2(y, x);
+
+		final boolean swap = ay > ax;
+		final float t = swap ? ax / ay : ay / ax;
+		final float t2 = t * t;
+		// the sign bit of y, so that atan2(-0, x < 0) is -pi like Math.atan2
+		final boolean negative = Float.floatToRawIntBits(y) < 0;
+		if (accuracy == GradientAccuracy.FAST) {
+			float a = t * (0.9998660f + t2 * (-0.3302995f + t2 * (0.1801410f + t2 * (-0.0851330f + t2 * 0.0208351f))));
+			if (swap)
+				a = HALF_PI - a;
+			if (x < 0)
+				a = PI - a;
+			return negative ? -a : a;
+		}
+		// mapped to the octant in double, the float result is rounded once
+		final double d2 = t2;
+		double a = t * (1 + d2 * (-0.3333314528 + d2 * (0.1999355085 + d2 * (-0.1420889944 + d2 * (0.1065626393
+		    + d2 * (-0.0752896400 + d2 * (0.0429096138 + d2 * (-0.0161657367 + d2 * 0.0028662257))))))));
+		if (swap)
+			a = Math.PI / 2 - a;
+		if (x < 0)
+			a = Math.PI - a;
+		return (float) (negative ? -a : a);
+	}
+
+	/**
+	 * Computation of the gradients of the columns [x0, x1) of row y.
+	 */
+	private interface GradientRow {
+		void run(int y, int x0, int x1);
+	}
 
-		for (int y = 0; y < array.height; ++y) {
-			final int[] ro = new int[3];
-			ro[0] = array.width * Math.max(0, y - 1);
-			ro[1] = array.width * y;
-			ro[2] = array.width * Math.min(y + 1, array.height - 1);
-			for (int x = 0; x < array.width; ++x) {
-				// (L(x+1, y) - L(x-1, y)) / 2
-				final float der_x = (array.data[ro[1] + Math.min(x + 1, array.width - 1)]
-				    - array.data[ro[1] + Math.max(0, x - 1)]) / 2;
-
-				// (L(x, y+1) - L(x, y-1)) / 2
-				final float der_y = (array.data[ro[2] + x] - array.data[ro[0] + x]) / 2;
-
-				// amplitude
-				gradients[0].data[ro[1] + x] = (float) Math.sqrt(Math.pow(der_x, 2) + Math.pow(der_y, 2));
-				// orientation
-				gradients[1].data[ro[1] + x] = (float) Math.atan2(der_y, der_x);
+	/**
+	 * Run a gradient row computation on all rows or on the active tiles of a
+	 * mask, in parallel by bands of rows or tile rows. With a mask, the targets
+	 * are set to 0 first.
+	 */
+	final private static void forGradientRows(final FloatArray2D array, final TileMask mask, final GradientRow row,
+	    final float[] target0, final float[] target1) {
+		if (mask == null) {
+			Parallel.forRows(array.width, array.height, new Parallel.Range() {
+				@Override
+				public void run(final int start, final int end) {
+					for (int y = start; y < end; ++y)
+						row.run(y, 0, array.width);
+				}
+			});
+			return;
+		}
+		Arrays.fill(target0, 0);
+		if (target1 != null)
+			Arrays.fill(target1, 0);
+
+		final int grain = Math.max(1, Parallel.MIN_PIXELS_PER_TASK / Math.max(1, array.width * mask.tileSize));
+		Parallel.forRange(0, mask.tilesY, grain, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int ty = start; ty < end; ++ty) {
+					if (!mask.isRowActive(ty))
+						continue;
+					final int y1 = Math.min(array.height, (ty + 1) * mask.tileSize);
+					for (int y = ty * mask.tileSize; y < y1; ++y)
+						for (int tx = 0; tx < mask.tilesX; ++tx)
+							if (mask.isActive(tx, ty))
+								row.run(y, tx * mask.tileSize, Math.min(array.width, (tx + 1) * mask.tileSize));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Create the gradients of the columns [x0, x1) of row y. Borders are
+	 * clamped, the interior is computed without clamping.
+	 */
+	final private static void createGradients(final FloatArray2D array, final int y, final int x0, final int x1,
+	    final GradientAccuracy accuracy, final float[] amplitudes, final float[] orientations) {
+		final int width = array.width;
+		final int r1 = width * y;
+		createGradients(array.data, width, width * Math.max(0, y - 1), r1, width * Math.min(y + 1, array.height - 1),
+		    x0, x1, accuracy, amplitudes, orientations, r1);
+	}
+
+	/**
+	 * Create the gradients of the columns [x0, x1) of a row given the offsets
+	 * of the row and its clamped neighbours in data, the gradient of column x
+	 * is written at o + x.
+	 */
+	final private static void createGradients(final float[] data, final int width, final int r0, final int r1,
+	    final int r2, final int x0, final int x1, final GradientAccuracy accuracy, final float[] amplitudes,
+	    final float[] orientations, final int o) {
+		// [x0, xa) and [xb, x1) need clamping, [xa, xb) does not
+		final int xa = Math.min(Math.max(x0, 1), x1);
+		final int xb = Math.max(Math.min(x1, width - 1), xa);
+		for (int x = x0; x < x1; ++x) {
+			if (x == xa) {
+				x = xb;
+				if (x == x1)
+					break;
 			}
+			// (L(x+1, y) - L(x-1, y)) / 2
+			final float der_x = (data[r1 + Math.min(x + 1, width - 1)] - data[r1 + Math.max(0, x - 1)]) / 2;
+			// (L(x, y+1) - L(x, y-1)) / 2
+			final float der_y = (data[r2 + x] - data[r0 + x]) / 2;
+			amplitudes[o + x] = amplitude(der_x, der_y);
+			orientations[o + x] = atan2(der_y, der_x, accuracy);
 		}
+		for (int x = xa; x < xb; ++x) {
+			final float der_x = (data[r1 + x + 1] - data[r1 + x - 1]) / 2;
+			final float der_y = (data[r2 + x] - data[r0 + x]) / 2;
+			amplitudes[o + x] = (float) Math.sqrt((double) der_x * der_x + (double) der_y * der_y);
+			orientations[o + x] = atan2(der_y, der_x, accuracy);
+		}
+	}
+
+	/**
+	 * Create the gradients of an image stored outside of the heap like
+	 * {@link #createGradients(FloatArray2D, TileMask, GradientAccuracy, FloatArray2D[])},
+	 * bands of rows are processed in parallel, each reading a row and its two
+	 * neighbours at a time.
+	 *
+	 * @param array
+	 * @param accuracy
+	 *          accuracy of the orientations
+	 * @param gradients
+	 *          0=>amplitudes; 1=>orientations, of the size of array
+	 *
+	 * @return gradients
+	 */
+	final public static DirectFloatArray2D[] createGradients(final DirectFloatArray2D array,
+	    final GradientAccuracy accuracy, final DirectFloatArray2D[] gradients) {
+		final int width = array.width;
+		final int height = array.height;
+		Parallel.forRows(width, height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				// rows y - 1, y and y + 1, clamped
+				final float[] rows = new float[3 * width];
+				final float[] amplitudes = new float[width];
+				final float[] orientations = new float[width];
+				for (int y = start; y < end; ++y) {
+					array.readRow(0, Math.max(0, y - 1), width, rows, 0);
+					array.readRow(0, y, width, rows, width);
+					array.readRow(0, Math.min(y + 1, height - 1), width, rows, 2 * width);
+					createGradients(rows, width, 0, width, 2 * width, 0, width, accuracy, amplitudes, orientations, 0);
+					gradients[0].writeRow(0, y, width, amplitudes, 0);
+					gradients[1].writeRow(0, y, width, orientations, 0);
+				}
+			}
+		});
 		return gradients;
 	}
 
+	/**
+	 * Create the gradients of the rectangle [x0, x1) x [y0, y1) of an image,
+	 * interleaved as (amplitude, orientation) per pixel.
+	 *
+	 * @param array
+	 * @param stride
+	 *          pixels per row of tile
+	 * @param accuracy
+	 *          accuracy of the orientations
+	 * @param tile
+	 *          target of at least 2 * stride * (y1 - y0)
+	 */
+	final static void createGradientTile(final FloatArray2D array, final int x0, final int y0, final int x1,
+	    final int y1, final int stride, final GradientAccuracy accuracy, final float[] tile) {
+		final float[] data = array.data;
+		final int width = array.width;
+		// [x0, xa) and [xb, x1) need clamping, [xa, xb) does not
+		final int xa = Math.min(Math.max(x0, 1), x1);
+		final int xb = Math.max(Math.min(x1, width - 1), xa);
+		for (int y = y0; y < y1; ++y) {
+			final int r0 = width * Math.max(0, y - 1);
+			final int r1 = width * y;
+			final int r2 = width * Math.min(y + 1, array.height - 1);
+			final int i0 = 2 * (stride * (y - y0) - x0);
+			for (int x = x0; x < x1; ++x) {
+				if (x == xa) {
+					x = xb;
+					if (x == x1)
+						break;
+				}
+				final float der_x = (data[r1 + Math.min(x + 1, width - 1)] - data[r1 + Math.max(0, x - 1)]) / 2;
+				final float der_y = (data[r2 + x] - data[r0 + x]) / 2;
+				tile[i0 + 2 * x] = amplitude(der_x, der_y);
+				tile[i0 + 2 * x + 1] = atan2(der_y, der_x, accuracy);
+			}
+			for (int x = xa; x < xb; ++x) {
+				final float der_x = (data[r1 + x + 1] - data[r1 + x - 1]) / 2;
+				final float der_y = (data[r2 + x] - data[r0 + x]) / 2;
+				tile[i0 + 2 * x] = amplitude(der_x, der_y);
+				tile[i0 + 2 * x + 1] = atan2(der_y, der_x, accuracy);
+			}
+		}
+	}
+
+	/**
+	 * Create the interleaved derivatives of the columns [x0, x1) of row y.
+	 */
+	final private static void createGradientComponents(final FloatArray2D array, final int y, final int x0,
+	    final int x1, final float[] components) {
+		final float[] data = array.data;
+		final int width = array.width;
+		final int r0 = width * Math.max(0, y - 1);
+		final int r1 = width * y;
+		final int r2 = width * Math.min(y + 1, array.height - 1);
+		for (int x = x0, i = 2 * (r1 + x0); x < x1; ++x, i += 2) {
+			components[i] = (data[r1 + Math.min(x + 1, width - 1)] - data[r1 + Math.max(0, x - 1)]) / 2;
+			components[i + 1] = (data[r2 + x] - data[r0 + x]) / 2;
+		}
+	}
+
 	/**
 	 * In place enhance all values of a FloatArray to fill the given range.
 	 *
@@ -215,9 +551,12 @@ public class Filter {
 	}
 
 	/**
-	 * Convolve an image with a horizontal and a vertical kernel simple
-	 * straightforward, not optimized---replace this with a trusted better version
-	 * soon
+	 * Convolve an image with a horizontal and a vertical kernel.
+	 *
+	 * The horizontal pass is distributed over bands of rows, the vertical pass
+	 * over bands of columns, on the shared pool of {@link Parallel}. Images with
+	 * less than {@link Parallel#MIN_PIXELS_PER_TASK} pixels are convolved in the
+	 * calling thread.
 	 *
 	 * @param input
 	 *          the input image
@@ -229,83 +568,476 @@ public class Filter {
 	 * @return convolved image
 	 */
 	final static public FloatArray2D convolveSeparable(final FloatArray2D input, final float[] h, final float[] v) {
-		final FloatArray2D output = new FloatArray2D(input.width, input.height);
-		final FloatArray2D temp = new FloatArray2D(input.width, input.height);
+		return convolveSeparable(input, h, v, null, null);
+	}
 
-		final int hl = h.length / 2;
-		final int vl = v.length / 2;
+	/**
+	 * Convolve an image with a horizontal and a vertical kernel into caller
+	 * supplied buffers.
+	 *
+	 * @param input
+	 *          the input image
+	 * @param h
+	 *          horizontal kernel
+	 * @param v
+	 *          vertical kernel
+	 * @param output
+	 *          target, allocated if null or not matching the input size
+	 * @param temp
+	 *          buffer for the horizontal pass, borrowed from the
+	 *          {@link ScratchPool} if null or not matching the input size
+	 *
+	 * @return the convolved image
+	 */
+	final static public FloatArray2D convolveSeparable(final FloatArray2D input, final float[] h, final float[] v,
+	    FloatArray2D output, FloatArray2D temp) {
+		if (output == null || output.width != input.width || output.height != input.height)
+			output = new FloatArray2D(input.width, input.height);
+		final boolean pooled = temp == null || temp.width != input.width || temp.height != input.height;
+		if (pooled)
+			temp = new FloatArray2D(ScratchPool.acquire(input.width * input.height), input.width, input.height);
 
-		int xl = input.width - h.length + 1;
-		int yl = input.height - v.length + 1;
+		convolveHorizontal(input, h, temp);
+		convolveVertical(temp, v, output);
 
-		// create lookup tables for coordinates outside the image range
-		final int[] xb = new int[h.length + hl - 1];
-		final int[] xa = new int[h.length + hl - 1];
-		for (int i = 0; i < xb.length; ++i) {
-			xb[i] = Util.pingPong(i - hl, input.width);
-			xa[i] = Util.pingPong(i + xl, input.width);
-		}
+		if (pooled)
+			ScratchPool.release(temp.data);
+		return output;
+	}
 
-		final int[] yb = new int[v.length + vl - 1];
-		final int[] ya = new int[v.length + vl - 1];
-		for (int i = 0; i < yb.length; ++i) {
-			yb[i] = input.width * Util.pingPong(i - vl, input.height);
-			ya[i] = input.width * Util.pingPong(i + yl, input.height);
-		}
+	/**
+	 * Convolve an image with a horizontal and a vertical kernel and write the
+	 * scaled difference to a previous image in the same pass, i.e.
+	 * <code>difference = (output - previous) * s</code>, while the rows of the
+	 * output are still in the cache.
+	 *
+	 * @param input
+	 *          the input image
+	 * @param h
+	 *          horizontal kernel
+	 * @param v
+	 *          vertical kernel
+	 * @param output
+	 *          target of the size of input
+	 * @param temp
+	 *          buffer for the horizontal pass of the size of input
+	 * @param previous
+	 *          image subtracted from the output
+	 * @param difference
+	 *          target of the difference
+	 * @param s
+	 *          scale of the difference
+	 *
+	 * @return the convolved image
+	 */
+	final static public FloatArray2D convolveSeparable(final FloatArray2D input, final float[] h, final float[] v,
+	    final FloatArray2D output, final FloatArray2D temp, final FloatArray2D previous, final FloatArray2D difference,
+	    final float s) {
+		convolveHorizontal(input, h, temp);
+		convolveVertical(temp, v, output, previous, difference, s);
+		return output;
+	}
 
-		xl += hl;
-		yl += vl;
+	/**
+	 * Convolve an image with a horizontal kernel, bands of rows are convolved in
+	 * parallel. Each row is copied with mirrored borders and convolved with
+	 * {@link #convolveRow(float[], int, float[], float[], int)}.
+	 *
+	 * @param input
+	 *          the input image
+	 * @param h
+	 *          horizontal kernel
+	 * @param output
+	 *          the convolved image, must have the size of input
+	 */
+	final static public void convolveHorizontal(final FloatArray2D input, final float[] h, final FloatArray2D output) {
+		final int hl = h.length / 2;
+		final int width = input.width;
+		final float[] in = input.data;
+		final float[] out = output.data;
 
 		// horizontal convolution per row
-		final int rl = input.height * input.width;
-		for (int r = 0; r < rl; r += input.width) {
-			for (int x = hl; x < xl; ++x) {
-				final int c = x - hl;
-				float val = 0;
-				for (int xk = 0; xk < h.length; ++xk) {
-					val += h[xk] * input.data[r + c + xk];
+		Parallel.forRows(width, input.height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final float[] row = new float[width + 2 * hl];
+				for (int r = start * width; r < end * width; r += width) {
+					System.arraycopy(in, r, row, hl, width);
+					mirrorBorders(row, width, hl);
+					convolveRow(row, width, h, out, r);
 				}
-				temp.data[r + x] = val;
 			}
-			for (int x = 0; x < hl; ++x) {
-				float valb = 0;
-				float vala = 0;
-				for (int xk = 0; xk < h.length; ++xk) {
-					valb += h[xk] * input.data[r + xb[x + xk]];
-					vala += h[xk] * input.data[r + xa[x + xk]];
+		});
+	}
+
+	/**
+	 * Number of columns processed together by {@link #convolveVertical}, chosen
+	 * such that the accumulated output row and the input rows under the kernel
+	 * stay in the cache.
+	 */
+	final static private int COLUMN_BLOCK = 512;
+
+	/**
+	 * Convolve an image with a vertical kernel.
+	 *
+	 * Bands of columns are convolved in parallel, each band is processed in
+	 * blocks of {@link #COLUMN_BLOCK} columns. Within a block, each output row is
+	 * accumulated tap by tap from the input rows under the kernel, so all inner
+	 * loops run with unit stride. Symmetric kernels are folded, the two input
+	 * rows sharing a tap are added before the multiplication, and convolved by
+	 * {@link #VECTOR} if available.
+	 *
+	 * @param input
+	 *          the input image
+	 * @param v
+	 *          vertical kernel
+	 * @param output
+	 *          the convolved image, must have the size of input
+	 */
+	final static public void convolveVertical(final FloatArray2D input, final float[] v, final FloatArray2D output) {
+		convolveVertical(input, v, output, null, null, 0);
+	}
+
+	/**
+	 * Convolve an image with a vertical kernel, see
+	 * {@link #convolveVertical(FloatArray2D, float[], FloatArray2D)}, and write
+	 * <code>difference = (output - previous) * s</code> block by block if
+	 * previous is given.
+	 *
+	 * @param input
+	 *          the input image
+	 * @param v
+	 *          vertical kernel
+	 * @param output
+	 *          the convolved image, must have the size of input
+	 * @param previous
+	 *          image subtracted from the output, null for none
+	 * @param difference
+	 *          target of the difference
+	 * @param s
+	 *          scale of the difference
+	 */
+	final static public void convolveVertical(final FloatArray2D input, final float[] v, final FloatArray2D output,
+	    final FloatArray2D previous, final FloatArray2D difference, final float s) {
+		final int vl = v.length / 2;
+		final int width = input.width;
+		final int height = input.height;
+		final float[] in = input.data;
+		final float[] out = output.data;
+
+		// row offsets for all rows under the kernel including the mirrored ones
+		final int[] ro = new int[height + 2 * vl];
+		for (int i = 0; i < ro.length; ++i)
+			ro[i] = width * Util.pingPong(i - vl, height);
+		final boolean symmetric = isSymmetric(v);
+
+		// bands of columns are convolved in parallel, each in blocks
+		final int grain = Math.max(1, Parallel.MIN_PIXELS_PER_TASK / Math.max(1, height));
+		Parallel.forRange(0, width, grain, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int x0 = start; x0 < end; x0 += COLUMN_BLOCK) {
+					final int x1 = Math.min(end, x0 + COLUMN_BLOCK);
+					for (int y = 0; y < height; ++y) {
+						final int r = y * width;
+						convolveColumns(in, ro, y, v, symmetric, out, r, x0, x1);
+						if (previous == null)
+							continue;
+						final float[] a = previous.data;
+						final float[] dst = difference.data;
+						if (VECTOR != null)
+							VECTOR.difference(a, out, s, dst, r + x0, r + x1);
+						else
+							for (int x = r + x0; x < r + x1; ++x)
+								dst[x] = (out[x] - a[x]) * s;
+					}
 				}
-				temp.data[r + x] = valb;
-				temp.data[r + x + xl] = vala;
+			}
+		});
+	}
+
+	/**
+	 * Convolve the columns [x0, x1) of output row y with a vertical kernel,
+	 * symmetric kernels are folded and convolved by {@link #VECTOR} if
+	 * available.
+	 *
+	 * @param in
+	 *          input image data
+	 * @param ro
+	 *          offsets of the input rows, ro[y + i] being the row under tap i
+	 * @param y
+	 *          output row
+	 * @param v
+	 *          vertical kernel
+	 * @param symmetric
+	 *          whether v is symmetric, see {@link #isSymmetric(float[])}
+	 * @param out
+	 *          output image data
+	 * @param r
+	 *          offset of output row y
+	 */
+	final static private void convolveColumns(final float[] in, final int[] ro, final int y, final float[] v,
+	    final boolean symmetric, final float[] out, final int r, final int x0, final int x1) {
+		final int vl = v.length / 2;
+		if (symmetric && VECTOR != null)
+			VECTOR.convolveColumns(in, ro, y, v, out, r, x0, x1);
+		else if (symmetric) {
+			final float c = v[vl];
+			final int rc = ro[y + vl];
+			for (int x = x0; x < x1; ++x)
+				out[r + x] = c * in[rc + x];
+			for (int yk = 0; yk < vl; ++yk) {
+				final float k = v[yk];
+				final int ra = ro[y + yk];
+				final int rb = ro[y + 2 * vl - yk];
+				for (int x = x0; x < x1; ++x)
+					out[r + x] += k * (in[ra + x] + in[rb + x]);
+			}
+		} else {
+			for (int x = x0; x < x1; ++x)
+				out[r + x] = 0;
+			for (int yk = 0; yk < v.length; ++yk) {
+				final float k = v[yk];
+				final int rk = ro[y + yk];
+				for (int x = x0; x < x1; ++x)
+					out[r + x] += k * in[rk + x];
 			}
 		}
+	}
 
-		// vertical convolution per column
-		final int rm = yl * temp.width;
-		final int vlc = vl * temp.width;
-		for (int x = 0; x < temp.width; ++x) {
-			for (int r = vlc; r < rm; r += temp.width) {
-				float val = 0;
-				final int c = r - vlc;
-				int rk = 0;
-				for (int yk = 0; yk < v.length; ++yk) {
-					val += v[yk] * temp.data[c + rk + x];
-					rk += temp.width;
+	/**
+	 * Convolve an image stored outside of the heap with a horizontal and a
+	 * vertical kernel like
+	 * {@link #convolveSeparable(FloatArray2D, float[], float[], FloatArray2D, FloatArray2D)}.
+	 *
+	 * Bands of output rows are convolved in parallel. Each band keeps the
+	 * horizontally convolved input rows under the vertical kernel in a ring of
+	 * v.length rows on the heap, so no intermediate image is stored and only
+	 * rows are held on the heap.
+	 *
+	 * @param input
+	 *          the input image
+	 * @param h
+	 *          horizontal kernel
+	 * @param v
+	 *          vertical kernel
+	 * @param output
+	 *          target of the size of input, not input itself
+	 *
+	 * @return the convolved image
+	 */
+	final static public DirectFloatArray2D convolveSeparable(final DirectFloatArray2D input, final float[] h,
+	    final float[] v, final DirectFloatArray2D output) {
+		final int hl = h.length / 2;
+		final int vl = v.length / 2;
+		final int n = v.length;
+		final int width = input.width;
+		final int height = input.height;
+		final boolean symmetric = isSymmetric(v);
+
+		Parallel.forRows(width, height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final float[] row = new float[width + 2 * hl];
+				// horizontally convolved row j - vl (mirrored) is in slot j % n
+				final float[] ring = new float[n * width];
+				final int[] ro = new int[n];
+				final float[] out = new float[width];
+				int next = start;
+				for (int y = start; y < end; ++y) {
+					for (; next < y + n; ++next) {
+						input.readRow(0, Util.pingPong(next - vl, height), width, row, hl);
+						mirrorBorders(row, width, hl);
+						convolveRow(row, width, h, ring, (next % n) * width);
+					}
+					for (int yk = 0; yk < n; ++yk)
+						ro[yk] = ((y + yk) % n) * width;
+					convolveColumns(ring, ro, 0, v, symmetric, out, 0, 0, width);
+					output.writeRow(0, y, width, out, 0);
 				}
-				output.data[r + x] = val;
 			}
-			for (int y = 0; y < vl; ++y) {
-				final int r = y * temp.width;
-				float valb = 0;
-				float vala = 0;
-				for (int yk = 0; yk < v.length; ++yk) {
-					valb += h[yk] * temp.data[yb[y + yk] + x];
-					vala += h[yk] * temp.data[ya[y + yk] + x];
+		});
+		return output;
+	}
+
+	/**
+	 * Mirror the samples of a row into its borders. The row stores
+	 * <code>width</code> samples starting at <code>l</code> and has
+	 * <code>l</code> border samples on each side.
+	 *
+	 * @param row
+	 *          row of length width + 2 * l
+	 * @param width
+	 *          number of samples
+	 * @param l
+	 *          border size
+	 */
+	final static public void mirrorBorders(final float[] row, final int width, final int l) {
+		for (int i = 0; i < l; ++i) {
+			row[i] = row[l + Util.pingPong(i - l, width)];
+			row[l + width + i] = row[l + Util.pingPong(width + i, width)];
+		}
+	}
+
+	/**
+	 * @param k
+	 *          kernel
+	 *
+	 * @return whether k is symmetric around its center tap
+	 */
+	final static public boolean isSymmetric(final float[] k) {
+		for (int i = 0; i < k.length / 2; ++i)
+			if (k[i] != k[k.length - 1 - i])
+				return false;
+		return (k.length & 1) == 1;
+	}
+
+	/**
+	 * Convolve a single row with mirrored borders (see
+	 * {@link #mirrorBorders(float[], int, int)}) with a horizontal kernel.
+	 *
+	 * Symmetric kernels are folded, the two samples sharing a tap are added
+	 * before the multiplication. The kernel lengths used by
+	 * {@link FloatArray2DSIFT} with the default parameters (9, 11, 13 and 17)
+	 * have fully unrolled implementations, longer symmetric kernels are
+	 * accumulated four taps at a time. Symmetric kernels are convolved by
+	 * {@link #VECTOR} if available.
+	 *
+	 * @param row
+	 *          row of length width + 2 * (h.length / 2)
+	 * @param width
+	 *          number of samples
+	 * @param h
+	 *          horizontal kernel
+	 * @param dst
+	 *          target array
+	 * @param o
+	 *          offset of the row in dst
+	 */
+	final static public void convolveRow(final float[] row, final int width, final float[] h, final float[] dst,
+	    final int o) {
+		if (!isSymmetric(h)) {
+			for (int x = 0; x < width; ++x) {
+				float val = 0;
+				for (int xk = 0; xk < h.length; ++xk) {
+					val += h[xk] * row[x + xk];
 				}
-				output.data[r + x] = valb;
-				output.data[r + rm + x] = vala;
+				dst[o + x] = val;
 			}
+			return;
+		}
+		if (VECTOR != null) {
+			VECTOR.convolveRow(row, width, h, dst, o);
+			return;
 		}
 
-		return output;
+		switch (h.length) {
+		case 9:
+			convolveRow9(row, width, h, dst, o);
+			return;
+		case 11:
+			convolveRow11(row, width, h, dst, o);
+			return;
+		case 13:
+			convolveRow13(row, width, h, dst, o);
+			return;
+		case 17:
+			convolveRow17(row, width, h, dst, o);
+			return;
+		}
+
+		// center tap, then groups of four folded taps
+		final int hl = h.length / 2;
+		final int l2 = 2 * hl;
+		final float c = h[hl];
+		for (int x = 0; x < width; ++x)
+			dst[o + x] = c * row[x + hl];
+		int k = 0;
+		for (; k + 4 <= hl; k += 4) {
+			final float h0 = h[k];
+			final float h1 = h[k + 1];
+			final float h2 = h[k + 2];
+			final float h3 = h[k + 3];
+			for (int x = 0; x < width; ++x) {
+				final int a = x + k;
+				final int b = x + l2 - k;
+				dst[o + x] += h0 * (row[a] + row[b]) + h1 * (row[a + 1] + row[b - 1]) + h2 * (row[a + 2] + row[b - 2])
+				    + h3 * (row[a + 3] + row[b - 3]);
+			}
+		}
+		for (; k < hl; ++k) {
+			final float hk = h[k];
+			for (int x = 0; x < width; ++x)
+				dst[o + x] += hk * (row[x + k] + row[x + l2 - k]);
+		}
+	}
+
+	/**
+	 * Folded convolution with a symmetric kernel of length 9.
+	 */
+	final static private void convolveRow9(final float[] row, final int width, final float[] h, final float[] dst,
+	    final int o) {
+		final float h0 = h[0];
+		final float h1 = h[1];
+		final float h2 = h[2];
+		final float h3 = h[3];
+		final float h4 = h[4];
+		for (int x = 0; x < width; ++x)
+			dst[o + x] = h4 * row[x + 4] + h3 * (row[x + 3] + row[x + 5]) + h2 * (row[x + 2] + row[x + 6])
+			    + h1 * (row[x + 1] + row[x + 7]) + h0 * (row[x] + row[x + 8]);
+	}
+
+	/**
+	 * Folded convolution with a symmetric kernel of length 11.
+	 */
+	final static private void convolveRow11(final float[] row, final int width, final float[] h, final float[] dst,
+	    final int o) {
+		final float h0 = h[0];
+		final float h1 = h[1];
+		final float h2 = h[2];
+		final float h3 = h[3];
+		final float h4 = h[4];
+		final float h5 = h[5];
+		for (int x = 0; x < width; ++x)
+			dst[o + x] = h5 * row[x + 5] + h4 * (row[x + 4] + row[x + 6]) + h3 * (row[x + 3] + row[x + 7])
+			    + h2 * (row[x + 2] + row[x + 8]) + h1 * (row[x + 1] + row[x + 9]) + h0 * (row[x] + row[x + 10]);
+	}
+
+	/**
+	 * Folded convolution with a symmetric kernel of length 13.
+	 */
+	final static private void convolveRow13(final float[] row, final int width, final float[] h, final float[] dst,
+	    final int o) {
+		final float h0 = h[0];
+		final float h1 = h[1];
+		final float h2 = h[2];
+		final float h3 = h[3];
+		final float h4 = h[4];
+		final float h5 = h[5];
+		final float h6 = h[6];
+		for (int x = 0; x < width; ++x)
+			dst[o + x] = h6 * row[x + 6] + h5 * (row[x + 5] + row[x + 7]) + h4 * (row[x + 4] + row[x + 8])
+			    + h3 * (row[x + 3] + row[x + 9]) + h2 * (row[x + 2] + row[x + 10]) + h1 * (row[x + 1] + row[x + 11])
+			    + h0 * (row[x] + row[x + 12]);
+	}
+
+	/**
+	 * Folded convolution with a symmetric kernel of length 17.
+	 */
+	final static private void convolveRow17(final float[] row, final int width, final float[] h, final float[] dst,
+	    final int o) {
+		final float h0 = h[0];
+		final float h1 = h[1];
+		final float h2 = h[2];
+		final float h3 = h[3];
+		final float h4 = h[4];
+		final float h5 = h[5];
+		final float h6 = h[6];
+		final float h7 = h[7];
+		final float h8 = h[8];
+		for (int x = 0; x < width; ++x)
+			dst[o + x] = h8 * row[x + 8] + h7 * (row[x + 7] + row[x + 9]) + h6 * (row[x + 6] + row[x + 10])
+			    + h5 * (row[x + 5] + row[x + 11]) + h4 * (row[x + 4] + row[x + 12]) + h3 * (row[x + 3] + row[x + 13])
+			    + h2 * (row[x + 2] + row[x + 14]) + h1 * (row[x + 1] + row[x + 15]) + h0 * (row[x] + row[x + 16]);
 	}
 }
@@ -0,0 +1,63 @@
+package algorithms.features.sift;
+
+import algorithms.utils.Parallel;
+
+/**
+ * {@link ImageSource} backed by a {@link FloatArray2D}.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class FloatArray2DImageSource implements ImageSource {
+	final private FloatArray2D array;
+
+	public FloatArray2DImageSource(final FloatArray2D array) {
+		this.array = array;
+	}
+
+	/**
+	 * Read a whole source into a new {@link FloatArray2D}, rows are read in
+	 * parallel.
+	 */
+	final static public FloatArray2D read(final ImageSource src) {
+		return read(src, null);
+	}
+
+	/**
+	 * Read a whole source into a {@link FloatArray2D}, rows are read in
+	 * parallel.
+	 *
+	 * @param src
+	 * @param dst
+	 *          target, allocated if null or not matching the source size
+	 *
+	 * @return the filled target
+	 */
+	final static public FloatArray2D read(final ImageSource src, FloatArray2D dst) {
+		if (dst == null || dst.width != src.getWidth() || dst.height != src.getHeight())
+			dst = new FloatArray2D(src.getWidth(), src.getHeight());
+		final FloatArray2D array = dst;
+		Parallel.forRows(array.width, array.height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int y = start; y < end; ++y)
+					src.readRow(0, y, array.width, array.data, y * array.width);
+			}
+		});
+		return array;
+	}
+
+	@Override
+	public int getWidth() {
+		return array.width;
+	}
+
+	@Override
+	public int getHeight() {
+		return array.height;
+	}
+
+	@Override
+	public void readRow(final int x, final int y, final int w, final float[] dst, final int o) {
+		System.arraycopy(array.data, y * array.width + x, dst, o, w);
+	}
+}
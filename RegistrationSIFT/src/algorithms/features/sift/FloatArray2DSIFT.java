@@ -1,10 +1,16 @@
 package algorithms.features.sift;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+import algorithms.utils.BufferArena;
+import algorithms.utils.Parallel;
+import algorithms.utils.ScratchPool;
 import algorithms.utils.Util;
 
 /**
@@ -66,9 +72,113 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 		 */
 		public float initialSigma = 1.6f;
 
+		/**
+		 * Detect candidates row by row without materializing the gaussian and
+		 * difference of gaussian images of an octave, gaussian images are built
+		 * one at a time for the descriptors and kept only with
+		 * {@link #keepOctaves}
+		 */
+		public boolean streaming = false;
+
+		/**
+		 * Minimal intensity variance of a tile of an octave to be searched for
+		 * features, tiles with a lower variance are considered as background and
+		 * skipped. 0 disables background skipping.
+		 */
+		public float backgroundThreshold = 0;
+
+		/**
+		 * Edge length in px of the tiles tested for background
+		 */
+		public int backgroundTileSize = 32;
+
+		/**
+		 * Number of tiles kept around each non background tile
+		 */
+		public int backgroundHalo = 1;
+
+		/**
+		 * Blur creating the gaussian images of an octave, {@link BlurEngine#FIR}
+		 * is used in {@link #streaming} mode whose detector convolves rows
+		 */
+		public BlurEngine blurEngine = BlurEngine.FIR;
+
+		/**
+		 * Blur each gaussian image of an octave from the previous one with the
+		 * incremental sigma instead of blurring the first image, ignored in
+		 * {@link #streaming} mode
+		 */
+		public boolean cascade = false;
+
+		/**
+		 * Accuracy of the gradient orientations, {@link GradientAccuracy#FLOAT}
+		 * and {@link GradientAccuracy#FAST} trade exact orientations for speed
+		 */
+		public GradientAccuracy gradientAccuracy = GradientAccuracy.EXACT;
+
+		/**
+		 * Store the gradients of the octaves as interleaved derivatives and
+		 * compute amplitudes and orientations only where they are sampled
+		 */
+		public boolean interleavedGradients = false;
+
+		/**
+		 * Compute the gradients of the octaves tile by tile, only where the
+		 * orientation and descriptor windows of candidates sample them, instead
+		 * of whole images, this has precedence over {@link #interleavedGradients}
+		 */
+		public boolean sparseGradients = false;
+
+		/**
+		 * Run the octaves as a graph of concurrent tasks on the shared pool:
+		 * blurs, difference of gaussian images, detection per scale and
+		 * descriptors in chunks of candidates, all octaves at once; ignored in
+		 * {@link #streaming} mode. The features are the same and in the same
+		 * order as those of the sequential run. All octaves are held in memory
+		 * at the same time, so this is off by default.
+		 */
+		public boolean taskGraph = false;
+
+		/**
+		 * Keep the images of all octaves until the next initialization, e.g. to
+		 * inspect them through {@link FloatArray2DSIFT#getOctaves()} after a
+		 * run. Otherwise the difference of gaussian images of an octave are
+		 * released after detection, the gaussian images and gradients of a scale
+		 * after its last candidate has been described and the octave is cleared
+		 * once it is done, so that a run consumes the scale space.
+		 */
+		public boolean keepOctaves = false;
+
+		/**
+		 * Write each difference of gaussian image in the convolution pass of its
+		 * second gaussian image and detect in a ring of three difference of
+		 * gaussian images, see
+		 * {@link FloatArray2DScaleOctaveDoGDetector#runFused(FloatArray2DScaleOctave)}.
+		 * The gaussian images of an octave are then built one after the other;
+		 * ignored in {@link #streaming} mode.
+		 */
+		public boolean fusedDoG = false;
+
+		/**
+		 * Capacity in bytes of the {@link BufferArena} owned by the extractor,
+		 * it recycles the buffers of the scale space between octaves and from
+		 * one image to the next, so that extracting features from images of the
+		 * same size allocates them only once. The buffers are held until
+		 * {@link FloatArray2DSIFT#release()}. 0 draws them from the shared
+		 * {@link ScratchPool} instead.
+		 */
+		public long arenaCapacity = 0;
+
 		public boolean equals(final Param p) {
 			return (fdSize == p.fdSize) && (fdBins == p.fdBins) && (maxOctaveSize == p.maxOctaveSize)
-			    && (minOctaveSize == p.minOctaveSize) && (steps == p.steps) && (initialSigma == p.initialSigma);
+			    && (minOctaveSize == p.minOctaveSize) && (steps == p.steps) && (initialSigma == p.initialSigma)
+			    && (streaming == p.streaming) && (backgroundThreshold == p.backgroundThreshold)
+			    && (backgroundTileSize == p.backgroundTileSize) && (backgroundHalo == p.backgroundHalo)
+			    && (blurEngine == p.blurEngine) && (cascade == p.cascade) && (gradientAccuracy == p.gradientAccuracy)
+			    && (interleavedGradients == p.interleavedGradients)
+			    && (sparseGradients == p.sparseGradients) && (taskGraph == p.taskGraph)
+			    && (keepOctaves == p.keepOctaves) && (fusedDoG == p.fusedDoG)
+			    && (arenaCapacity == p.arenaCapacity);
 		}
 
 		@Override
@@ -88,6 +198,19 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 			s.maxOctaveSize = maxOctaveSize;
 			s.minOctaveSize = minOctaveSize;
 			s.steps = steps;
+			s.streaming = streaming;
+			s.backgroundThreshold = backgroundThreshold;
+			s.backgroundTileSize = backgroundTileSize;
+			s.backgroundHalo = backgroundHalo;
+			s.blurEngine = blurEngine;
+			s.cascade = cascade;
+			s.gradientAccuracy = gradientAccuracy;
+			s.interleavedGradients = interleavedGradients;
+			s.sparseGradients = sparseGradients;
+			s.taskGraph = taskGraph;
+			s.keepOctaves = keepOctaves;
+			s.fusedDoG = fusedDoG;
+			s.arenaCapacity = arenaCapacity;
 
 			return s;
 		}
@@ -99,6 +222,19 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 			maxOctaveSize = p.maxOctaveSize;
 			minOctaveSize = p.minOctaveSize;
 			steps = p.steps;
+			streaming = p.streaming;
+			backgroundThreshold = p.backgroundThreshold;
+			backgroundTileSize = p.backgroundTileSize;
+			backgroundHalo = p.backgroundHalo;
+			blurEngine = p.blurEngine;
+			cascade = p.cascade;
+			gradientAccuracy = p.gradientAccuracy;
+			interleavedGradients = p.interleavedGradients;
+			sparseGradients = p.sparseGradients;
+			taskGraph = p.taskGraph;
+			keepOctaves = p.keepOctaves;
+			fusedDoG = p.fusedDoG;
+			arenaCapacity = p.arenaCapacity;
 		}
 	}
 
@@ -118,6 +254,46 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 	final static private int ORIENTATION_BINS1 = ORIENTATION_BINS - 1;
 	final static private double ORIENTATION_BIN_SIZE = 2.0 * Math.PI / ORIENTATION_BINS;
 
+	/**
+	 * number of candidates described by one task of {@link Param#taskGraph}
+	 */
+	final static private int CANDIDATES_PER_TASK = 64;
+
+	/**
+	 * buffers of {@link FloatArray2DSIFT#processCandidate(double[], int, List)}
+	 * reused from one candidate to the next by a single thread
+	 */
+	final private class Scratch {
+		final float[] histogram = new float[ORIENTATION_BINS];
+		final FloatArray2D[] region = new FloatArray2D[] { new FloatArray2D(fdWidth, fdWidth),
+		    new FloatArray2D(fdWidth, fdWidth) };
+		final float[] hist = new float[p.fdSize * p.fdSize * p.fdBins];
+		final private FloatArray2D[] roi = new FloatArray2D[2];
+		private double[] squares = new double[0];
+
+		/**
+		 * @return amplitudes and orientations of a window of the given width,
+		 *         backed by buffers of at least width^2 values
+		 */
+		FloatArray2D[] gradientROI(final int width) {
+			if (roi[0] == null || roi[0].data.length < width * width) {
+				roi[0] = new FloatArray2D(width, width);
+				roi[1] = new FloatArray2D(width, width);
+			}
+			return roi;
+		}
+
+		/**
+		 * @return a buffer of at least the given length for the squared column
+		 *         distances of the gaussian window
+		 */
+		double[] squares(final int width) {
+			if (squares.length < width)
+				squares = new double[width];
+			return squares;
+		}
+	}
+
 	/**
 	 * octaved scale space
 	 */
@@ -131,11 +307,87 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 		return octaves[i];
 	}
 
+	/**
+	 * buffers of the scale space, see {@link Param#arenaCapacity}
+	 */
+	final private BufferArena arena;
+
 	/**
 	 * Difference of Gaussian detector
 	 */
 	private final FloatArray2DScaleOctaveDoGDetector dog;
 
+	/**
+	 * Difference of Gaussian detector used in {@link Param#streaming} mode
+	 */
+	private final FloatArray2DStreamingDoGDetector streamingDog;
+
+	/**
+	 * pixels of the image candidates are kept in, null for all
+	 */
+	private boolean[] mask = null;
+	private int maskWidth;
+	private float maskScale;
+
+	/**
+	 * Keep only candidates inside a mask, candidates outside are dropped before
+	 * their orientation and descriptor are computed.
+	 *
+	 * @param mask
+	 *          row major mask or null to keep all candidates
+	 * @param width
+	 *          width of the mask
+	 * @param scale
+	 *          size of a mask pixel in pixels of the image passed to
+	 *          {@link #init(FloatArray2D)}
+	 */
+	public void setMask(final boolean[] mask, final int width, final float scale) {
+		this.mask = mask;
+		this.maskWidth = width;
+		this.maskScale = scale;
+	}
+
+	/**
+	 * @param c
+	 *          candidate 0=>x, 1=>y, 2=>scale index
+	 * @param o
+	 *          octave index
+	 *
+	 * @return whether the candidate is inside the mask
+	 */
+	final private boolean isInMask(final double[] c, final int o) {
+		if (mask == null)
+			return true;
+		final int scale = 1 << o;
+		final int x = (int) Math.round(c[0] * scale / maskScale);
+		final int y = (int) Math.round(c[1] * scale / maskScale);
+		if (x < 0 || y < 0 || x >= maskWidth || y >= mask.length / maskWidth)
+			return false;
+		return mask[y * maskWidth + x];
+	}
+
+	/**
+	 * number of background tested and skipped tiles in the last run
+	 */
+	private int numTiles = 0;
+	private int numSkippedTiles = 0;
+
+	/**
+	 * @return number of tiles tested for background in all octaves of the last
+	 *         run
+	 */
+	public int getNumTiles() {
+		return numTiles;
+	}
+
+	/**
+	 * @return number of tiles skipped as background in all octaves of the last
+	 *         run
+	 */
+	public int getNumSkippedTiles() {
+		return numSkippedTiles;
+	}
+
 	/**
 	 * Constructor
 	 *
@@ -146,28 +398,25 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 		super(p);
 		octaves = null;
 		dog = new FloatArray2DScaleOctaveDoGDetector();
+		streamingDog = new FloatArray2DStreamingDoGDetector();
 
 		fdWidth = 4 * p.fdSize;
 		fdBinWidth = 2.0f * (float) Math.PI / (float) p.fdBins;
 
-		descriptorMask = new float[fdWidth][fdWidth];
-
-		final float two_sq_sigma = p.fdSize * p.fdSize * 8;
-		for (int y = p.fdSize * 2 - 1; y >= 0; --y) {
-			final float fy = (float) y + 0.5f;
-			for (int x = p.fdSize * 2 - 1; x >= 0; --x) {
-				final float fx = (float) x + 0.5f;
-				final float val = (float) Math.exp(-(fy * fy + fx * fx) / two_sq_sigma);
-				descriptorMask[2 * p.fdSize - 1 - y][2 * p.fdSize - 1 - x] = val;
-				descriptorMask[2 * p.fdSize + y][2 * p.fdSize - 1 - x] = val;
-				descriptorMask[2 * p.fdSize - 1 - y][2 * p.fdSize + x] = val;
-				descriptorMask[2 * p.fdSize + y][2 * p.fdSize + x] = val;
-			}
-		}
+		descriptorMask = KernelCache.descriptorMask(p.fdSize);
+
+		arena = p.arenaCapacity > 0 ? new BufferArena(p.arenaCapacity) : null;
 
 		setInitialSigma(p.initialSigma);
 	}
 
+	/**
+	 * @return an independent instance with a copy of the parameters
+	 */
+	public FloatArray2DSIFT copy() {
+		return new FloatArray2DSIFT(p.clone());
+	}
+
 	/**
 	 * initialize the scale space as a scale pyramid having octave stubs only
 	 *
@@ -175,33 +424,204 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 	 *          image having a generating gaussian kernel of
 	 *          {@link Param#initialSigma} img must be a 2d-array of float values
 	 *          in range [0.0f, ..., 1.0f]
+	 *
+	 *          The buffers of the previous scale space are returned to the
+	 *          arena or the {@link ScratchPool}, images obtained from its octaves must not be
+	 *          used after this call.
 	 */
 	@Override
 	final public void init(FloatArray2D src) {
-		// estimate the number of octaves needed using a simple while loop instead
-		// of ld
-		int o = 0;
-		float w = (float) src.width;
-		float h = (float) src.height;
-		final int max_kernel_size = kernel_diff[p.steps + 2].length;
-		while (w > Math.max(max_kernel_size, p.minOctaveSize - 1) && h > Math.max(max_kernel_size, p.minOctaveSize - 1)) {
-			w /= 2.0f;
-			h /= 2.0f;
-			++o;
+		if (octaves != null) {
+			for (int i = 0; i < octaves.length; ++i)
+				releaseOctave(i);
 		}
-		octaves = new FloatArray2DScaleOctave[o];
+		octaves = new FloatArray2DScaleOctave[getNumOctaves(src.width, src.height)];
 
 		FloatArray2D next;
 
 		for (int i = 0; i < octaves.length; ++i) {
 			octaves[i] = new FloatArray2DScaleOctave(src, sigma, sigma_diff, kernel_diff);
+			octaves[i].setBlurEngine(p.streaming ? BlurEngine.FIR : p.blurEngine);
+			octaves[i].setCascade(p.cascade && !p.streaming);
+			octaves[i].setGradientAccuracy(p.gradientAccuracy);
+			octaves[i].setInterleavedGradients(p.interleavedGradients);
+			octaves[i].setSparseGradients(p.sparseGradients);
+			octaves[i].setArena(arena);
 			octaves[i].buildStub();
-			next = new FloatArray2D(src.width / 2 + src.width % 2, src.height / 2 + src.height % 2);
+			final int w = src.width / 2 + src.width % 2;
+			final int h = src.height / 2 + src.height % 2;
+			next = new FloatArray2D(acquire(w * h), w, h);
 			FloatArray2DScaleOctave.downsample(octaves[i].getL(1), next);
 			if (src.width > p.maxOctaveSize || src.height > p.maxOctaveSize)
-				octaves[i].clear();
+				releaseOctave(i);
 			src = next;
 		}
+		// the image following the last octave is not used
+		if (octaves.length > 0)
+			recycle(src.data);
+	}
+
+	/**
+	 * estimate the number of octaves of the scale space of an image using a
+	 * simple while loop instead of ld
+	 *
+	 * @param width
+	 * @param height
+	 *
+	 * @return number of octaves
+	 */
+	final public int getNumOctaves(final int width, final int height) {
+		int o = 0;
+		float w = (float) width;
+		float h = (float) height;
+		final int max_kernel_size = kernel_diff[p.steps + 2].length;
+		while (w > Math.max(max_kernel_size, p.minOctaveSize - 1) && h > Math.max(max_kernel_size, p.minOctaveSize - 1)) {
+			w /= 2.0f;
+			h /= 2.0f;
+			++o;
+		}
+		return o;
+	}
+
+	/**
+	 * estimate the radius around a feature location of octave o in which image
+	 * values influence its detection and descriptor, that is the support of
+	 * the descriptor and orientation windows, the difference of gaussian
+	 * neighbourhood and the gaussian kernels of this and all previous octaves
+	 *
+	 * @param o
+	 *          octave index
+	 *
+	 * @return radius in px of the first octave
+	 */
+	final public int getSupportRadius(final int o) {
+		final double maxSigma = p.initialSigma * Math.pow(2.0, (p.steps + 1.0) / p.steps);
+		final double descriptor = 2 * p.fdSize * maxSigma * Math.sqrt(2);
+		final double orientation = Math.round(4.5 * maxSigma) + 1;
+		final int kernel = kernel_diff[p.steps + 2].length / 2;
+		double r = (Math.max(descriptor, orientation) + kernel + 2) * (1 << o);
+		for (int i = 0; i < o; ++i)
+			r += (kernel_diff[p.steps].length / 2) * (1 << i);
+		return (int) Math.ceil(r);
+	}
+
+	/**
+	 * initialize the scale space from an {@link ImageSource}, the source is read
+	 * into memory as a whole
+	 *
+	 * @param src
+	 *          image having a generating gaussian kernel of
+	 *          {@link Param#initialSigma} img must be a 2d-array of float values
+	 *          in range [0.0f, ..., 1.0f]
+	 */
+	final public void init(final ImageSource src) {
+		init(FloatArray2DImageSource.read(src));
+	}
+
+	/**
+	 * clear an octave and return its buffers to the arena or the
+	 * {@link ScratchPool}
+	 *
+	 * @param o
+	 *          octave index
+	 */
+	final private void releaseOctave(final int o) {
+		// the first image of all but the first octave is owned here
+		if (o > 0 && octaves[o].getL() != null)
+			recycle(octaves[o].getL(0).data);
+		octaves[o].clear();
+	}
+
+	/**
+	 * @return a buffer of the given length from the arena or the
+	 *         {@link ScratchPool}
+	 */
+	final private float[] acquire(final int length) {
+		return arena == null ? ScratchPool.acquire(length) : arena.acquire(length);
+	}
+
+	/**
+	 * return a buffer to the arena or the {@link ScratchPool}
+	 */
+	final private void recycle(final float[] a) {
+		if (arena == null)
+			ScratchPool.release(a);
+		else
+			arena.release(a);
+	}
+
+	/**
+	 * Clear the scale space and drop the buffers held by the arena of
+	 * {@link Param#arenaCapacity}. The extractor remains usable, the buffers
+	 * are allocated again by the next {@link #init(FloatArray2D)}.
+	 */
+	final public void release() {
+		if (octaves != null) {
+			for (int i = 0; i < octaves.length; ++i)
+				releaseOctave(i);
+			octaves = null;
+		}
+		if (arena != null)
+			arena.clear();
+	}
+
+	/**
+	 * @return the arena of {@link Param#arenaCapacity}, null if the buffers
+	 *         are drawn from the {@link ScratchPool}
+	 */
+	final public BufferArena getArena() {
+		return arena;
+	}
+
+	/**
+	 * count the candidates of each scale of an octave to release the scales
+	 * progressively by {@link #describe(double[], int, List, AtomicIntegerArray, Scratch)},
+	 * scales without candidates are released immediately
+	 *
+	 * @param candidates
+	 *          candidates to be described
+	 * @param o
+	 *          octave index
+	 *
+	 * @return number of candidates per scale, null if {@link Param#keepOctaves}
+	 */
+	final private AtomicIntegerArray countCandidates(final List<double[]> candidates, final int o) {
+		if (p.keepOctaves)
+			return null;
+		final FloatArray2DScaleOctave octave = octaves[o];
+		final AtomicIntegerArray remaining = new AtomicIntegerArray(octave.STEPS + 3);
+		for (final double[] c : candidates)
+			remaining.incrementAndGet((int) Math.round(c[2]));
+		for (int i = 0; i < remaining.length(); ++i)
+			if (remaining.get(i) == 0)
+				octave.release(i);
+		return remaining;
+	}
+
+	/**
+	 * process a candidate, then release the gaussian image and gradients of its
+	 * scale if it was the last candidate of that scale
+	 *
+	 * @param c
+	 *          candidate 0=>x, 1=>y, 2=>scale index
+	 * @param o
+	 *          octave index
+	 * @param features
+	 *          finally contains all processed candidates
+	 * @param remaining
+	 *          number of candidates per scale still to be described, null to
+	 *          keep all scales
+	 * @param scratch
+	 *          buffers of the calling thread
+	 */
+	final private void describe(final double[] c, final int o, final List<Feature> features,
+	    final AtomicIntegerArray remaining, final Scratch scratch) {
+		processCandidate(c, o, features, scratch);
+		if (remaining != null) {
+			final int i = (int) Math.round(c[2]);
+			if (remaining.decrementAndGet(i) == 0)
+				octaves[o].release(i);
+		}
 	}
 
 	/**
@@ -218,14 +638,20 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 	 *          scale octave
 	 * @param orientation
 	 *          orientation [-&pi; ... &pi;]
+	 * @param scratch
+	 *          buffers of the calling thread
 	 */
-	private float[] createDescriptor(final double[] c, final int o, final double octave_sigma, final double orientation) {
+	private float[] createDescriptor(final double[] c, final int o, final double octave_sigma, final double orientation,
+	    final Scratch scratch) {
 		final FloatArray2DScaleOctave octave = octaves[o];
-		final FloatArray2D[] gradients = octave.getL1((int) Math.round(c[2]));
-		final FloatArray2D[] region = new FloatArray2D[2];
-
-		region[0] = new FloatArray2D(fdWidth, fdWidth);
-		region[1] = new FloatArray2D(fdWidth, fdWidth);
+		final int s = (int) Math.round(c[2]);
+		final SparseGradients sparse = octave.isSparseGradients() ? octave.getSparseGradients(s) : null;
+		final boolean interleaved = sparse == null && octave.isInterleavedGradients();
+		final FloatArray2D[] gradients = sparse != null || interleaved ? null : octave.getL1(s);
+		final float[] components = interleaved ? octave.getGradientComponents(s).data : null;
+		final int width = octave.width;
+		final int height = octave.height;
+		final FloatArray2D[] region = scratch.region;
 		final double cos_o = Math.cos(orientation);
 		final double sin_o = Math.sin(orientation);
 
@@ -252,21 +678,36 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 				// improve the result?
 
 				// translate ys to sample y position in the gradient image
-				final int yg = Util.pingPong((int) (Math.round(yr + c[1])), gradients[0].height);
+				final int yg = Util.pingPong((int) (Math.round(yr + c[1])), height);
 
 				// translate xs to sample x position in the gradient image
-				final int xg = Util.pingPong((int) (Math.round(xr + c[0])), gradients[0].width);
+				final int xg = Util.pingPong((int) (Math.round(xr + c[0])), width);
 
 				// get the samples
 				final int region_p = fdWidth * y + x;
-				final int gradient_p = gradients[0].width * yg + xg;
+				final int gradient_p = width * yg + xg;
+				final float amplitude, angle;
+				if (sparse != null) {
+					final float[] tile = sparse.tile(xg, yg);
+					final int t = SparseGradients.index(xg, yg);
+					amplitude = tile[t];
+					angle = tile[t + 1];
+				} else if (interleaved) {
+					final float dx = components[2 * gradient_p];
+					final float dy = components[2 * gradient_p + 1];
+					amplitude = Filter.amplitude(dx, dy);
+					angle = Filter.atan2(dy, dx, p.gradientAccuracy);
+				} else {
+					amplitude = gradients[0].data[gradient_p];
+					angle = gradients[1].data[gradient_p];
+				}
 
 				// weigh the gradients
-				region[0].data[region_p] = gradients[0].data[gradient_p] * descriptorMask[y][x];
+				region[0].data[region_p] = amplitude * descriptorMask[y][x];
 
 				// rotate the gradients orientation it with respect to the features
 				// orientation
-				region[1].data[region_p] = (float) (gradients[1].data[gradient_p] - orientation);
+				region[1].data[region_p] = (float) (angle - orientation);
 
 				// TODO this is for test
 				// ---------------------------------------------------------------------
@@ -274,7 +715,9 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 			}
 		}
 
-		final float[][][] hist = new float[p.fdSize][p.fdSize][p.fdBins];
+		// orientation histograms of the subregions, bins of (y, x) at (y * fdSize + x) * fdBins
+		final float[] hist = scratch.hist;
+		Arrays.fill(hist, 0);
 
 		// build the orientation histograms of 4x4 subregions
 		for (int y = p.fdSize - 1; y >= 0; --y) {
@@ -295,8 +738,9 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 
 						final double t = region[0].data[yp + xp + ysrp + xsr];
 
-						hist[y][x][bin_b] += t * (1 - d);
-						hist[y][x][bin_t] += t * d;
+						final int h = (y * p.fdSize + x) * p.fdBins;
+						hist[h + bin_b] += t * (1 - d);
+						hist[h + bin_t] += t * d;
 					}
 				}
 			}
@@ -310,7 +754,7 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 		for (int y = p.fdSize - 1; y >= 0; --y) {
 			for (int x = p.fdSize - 1; x >= 0; --x) {
 				for (int b = p.fdBins - 1; b >= 0; --b) {
-					desc[i] = hist[y][x][b];
+					desc[i] = hist[(y * p.fdSize + x) * p.fdBins + b];
 					if (desc[i] > max_bin_val)
 						max_bin_val = desc[i];
 					++i;
@@ -339,7 +783,19 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 	 *          finally contains all processed candidates
 	 */
 	final protected void processCandidate(final double[] c, final int o, final List<Feature> features) {
-		final float[] histogram_bins = new float[ORIENTATION_BINS];
+		processCandidate(c, o, features, new Scratch());
+	}
+
+	/**
+	 * @param scratch
+	 *          buffers of the calling thread
+	 * 
+	 * @see #processCandidate(double[], int, List)
+	 */
+	final private void processCandidate(final double[] c, final int o, final List<Feature> features,
+	    final Scratch scratch) {
+		final float[] histogram_bins = scratch.histogram;
+		Arrays.fill(histogram_bins, 0);
 
 		final int scale = 1 << o;
 
@@ -348,36 +804,59 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 		final double octave_sigma = octave.SIGMA[0] * Math.pow(2.0, c[2] / octave.STEPS);
 
 		// create a circular gaussian window with sigma 1.5 times that of the
-		// feature
-		final FloatArray2D gaussianMask = Filter.createGaussianKernelOffset(octave_sigma * 1.5, c[0] - Math.floor(c[0]),
-		    c[1] - Math.floor(c[1]), false);
-		// FloatArrayToImagePlus( gaussianMask, "gaussianMask", 0, 0 ).show();
+		// feature, as Filter.createGaussianKernelOffset does, but evaluated while
+		// the gradients are gathered with the squared column distances computed
+		// once
+		final double window_sigma = octave_sigma * 1.5;
+		final int maskWidth = Math.max(3, (int) (2 * Math.round(3 * window_sigma) + 1));
+		final double two_sq_sigma = 2 * window_sigma * window_sigma;
+		final double offset_x = c[0] - Math.floor(c[0]);
+		final double offset_y = c[1] - Math.floor(c[1]);
 
 		// get the gradients in a region arround the keypoints location
-		final FloatArray2D[] src = octave.getL1((int) Math.round(c[2]));
-		final FloatArray2D[] gradientROI = new FloatArray2D[2];
-		gradientROI[0] = new FloatArray2D(gaussianMask.width, gaussianMask.width);
-		gradientROI[1] = new FloatArray2D(gaussianMask.width, gaussianMask.width);
-
-		final int half_size = gaussianMask.width / 2;
-		int n = gaussianMask.width * gaussianMask.width - 1;
-		for (int yi = gaussianMask.width - 1; yi >= 0; --yi) {
-			final int ra_y = src[0].width * Math.max(0, Math.min(src[0].height - 1, (int) c[1] + yi - half_size));
-			final int ra_x = ra_y + Math.min((int) c[0], src[0].width - 1);
-
-			for (int xi = gaussianMask.width - 1; xi >= 0; --xi) {
-				final int pt = Math.max(ra_y, Math.min(ra_y + src[0].width - 2, ra_x + xi - half_size));
-				gradientROI[0].data[n] = src[0].data[pt];
-				gradientROI[1].data[n] = src[1].data[pt];
+		final int s = (int) Math.round(c[2]);
+		final SparseGradients sparse = octave.isSparseGradients() ? octave.getSparseGradients(s) : null;
+		final boolean interleaved = sparse == null && octave.isInterleavedGradients();
+		final FloatArray2D[] src = sparse != null || interleaved ? null : octave.getL1(s);
+		final float[] components = interleaved ? octave.getGradientComponents(s).data : null;
+		final int width = octave.width;
+		final int height = octave.height;
+		final FloatArray2D[] gradientROI = scratch.gradientROI(maskWidth);
+
+		final int half_size = maskWidth / 2;
+		final double[] sq_x = scratch.squares(maskWidth);
+		for (int xi = maskWidth - 1; xi >= 0; --xi)
+			sq_x[xi] = Math.pow(xi - half_size - offset_x, 2);
+		int n = maskWidth * maskWidth - 1;
+		for (int yi = maskWidth - 1; yi >= 0; --yi) {
+			final double sq_y = Math.pow(yi - half_size - offset_y, 2);
+			final int y = Math.max(0, Math.min(height - 1, (int) c[1] + yi - half_size));
+			final int ra_y = width * y;
+			final int ra_x = ra_y + Math.min((int) c[0], width - 1);
+
+			for (int xi = maskWidth - 1; xi >= 0; --xi) {
+				final int pt = Math.max(ra_y, Math.min(ra_y + width - 2, ra_x + xi - half_size));
+				// and mask this region with the gaussian window
+				final float w = (float) Math.exp(-(sq_x[xi] + sq_y) / two_sq_sigma);
+				if (sparse != null) {
+					final int x = pt - ra_y;
+					final float[] tile = sparse.tile(x, y);
+					final int t = SparseGradients.index(x, y);
+					gradientROI[0].data[n] = tile[t] * w;
+					gradientROI[1].data[n] = tile[t + 1];
+				} else if (interleaved) {
+					final float dx = components[2 * pt];
+					final float dy = components[2 * pt + 1];
+					gradientROI[0].data[n] = Filter.amplitude(dx, dy) * w;
+					gradientROI[1].data[n] = Filter.atan2(dy, dx, p.gradientAccuracy);
+				} else {
+					gradientROI[0].data[n] = src[0].data[pt] * w;
+					gradientROI[1].data[n] = src[1].data[pt];
+				}
 				--n;
 			}
 		}
 
-		// and mask this region with the precalculated gaussion window
-		for (int i = 0; i < gradientROI[0].data.length; ++i) {
-			gradientROI[0].data[i] *= gaussianMask.data[i];
-		}
-
 		// TODO this is for test
 		// ---------------------------------------------------------------------
 		// ImageArrayConverter.FloatArrayToImagePlus( gradientROI[ 0 ],
@@ -386,7 +865,7 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 		// "gaussianMaskedGradientROI", 0, 0 ).show();
 
 		// build an orientation histogram of the region
-		for (int i = 0; i < gradientROI[0].data.length; ++i) {
+		for (int i = 0; i < maskWidth * maskWidth; ++i) {
 			final int bin = Math.max(0,
 			    Math.min(ORIENTATION_BINS1, (int) ((gradientROI[1].data[i] + Math.PI) / ORIENTATION_BIN_SIZE)));
 			histogram_bins[bin] += gradientROI[0].data[i];
@@ -415,7 +894,7 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 		features.add(new Feature(octave_sigma * scale, orientation, new double[] { c[0] * scale, c[1] * scale },
 		    // new double[]{ ( c[ 0 ] + 0.5f ) * scale - 0.5f, ( c[ 1 ] + 0.5f ) *
 		    // scale - 0.5f },
-		    createDescriptor(c, o, octave_sigma, orientation)));
+		    createDescriptor(c, o, octave_sigma, orientation, scratch)));
 
 		/**
 		 * check if there is another significant orientation ( > 80% max ) if there
@@ -438,7 +917,7 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 					orientation = (i + 0.5 + offset) * ORIENTATION_BIN_SIZE - Math.PI;
 
 					features.add(new Feature(octave_sigma * scale, orientation, new double[] { c[0] * scale, c[1] * scale },
-					    createDescriptor(c, o, octave_sigma, orientation)));
+					    createDescriptor(c, o, octave_sigma, orientation, scratch)));
 				}
 			}
 		}
@@ -454,32 +933,220 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 	 * @return detected features
 	 */
 	final private Vector<Feature> runOctave(final int o) {
+		if (p.streaming)
+			return runOctaveStreaming(o);
+		final Vector<Feature> features = new Vector<Feature>();
+		final FloatArray2DScaleOctave octave = octaves[o];
+		if (p.fusedDoG) {
+			createMasks(octave);
+			dog.runFused(octave);
+		} else {
+			octave.build();
+			createMasks(octave);
+			dog.run(octave);
+			if (!p.keepOctaves)
+				octave.releaseD();
+		}
+		final List<double[]> candidates = new ArrayList<double[]>();
+		for (final double[] c : dog.getCandidates()) {
+			if (isInMask(c, o))
+				candidates.add(c);
+		}
+		final AtomicIntegerArray remaining = countCandidates(candidates, o);
+		final Scratch scratch = new Scratch();
+		for (final double[] c : candidates)
+			describe(c, o, features, remaining, scratch);
+		if (!p.keepOctaves)
+			releaseOctave(o);
+
+		return features;
+	}
+
+	/**
+	 * mark the background tiles of an octave if {@link Param#backgroundThreshold}
+	 * is set, candidates are searched in the non background tiles and their halo,
+	 * gradients are computed in an additional band covering the descriptor
+	 * support of these candidates
+	 *
+	 * @param octave
+	 */
+	final private void createMasks(final FloatArray2DScaleOctave octave) {
+		if (p.backgroundThreshold <= 0) {
+			octave.setMasks(null, null);
+			return;
+		}
+		final TileMask mask = TileMask.create(octave.getL(0), p.backgroundTileSize, p.backgroundThreshold);
+		final TileMask detection = mask.dilate(p.backgroundHalo);
+		final int support = (getSupportRadius(0) + p.backgroundTileSize - 1) / p.backgroundTileSize;
+		octave.setMasks(detection, mask.dilate(p.backgroundHalo + support));
+		numTiles += mask.size();
+		numSkippedTiles += mask.size() - detection.countActive();
+	}
+
+	/**
+	 * detect features in the specified scale octave with the streaming detector,
+	 * candidates are processed scale by scale so that at most one gaussian image
+	 * and its gradients are held in memory unless {@link Param#keepOctaves} is
+	 * set
+	 *
+	 * @param o
+	 *          octave index
+	 *
+	 * @return detected features
+	 */
+	final private Vector<Feature> runOctaveStreaming(final int o) {
 		final Vector<Feature> features = new Vector<Feature>();
 		final FloatArray2DScaleOctave octave = octaves[o];
-		octave.build();
-		dog.run(octave);
-		final Vector<double[]> candidates = dog.getCandidates();
-		for (final double[] c : candidates) {
-			this.processCandidate(c, o, features);
+		octave.buildLazy();
+		createMasks(octave);
+		streamingDog.run(octave);
+		final Vector<double[]> candidates = streamingDog.getCandidates();
+		final Scratch scratch = new Scratch();
+		for (int i = 0; i < octave.STEPS + 3; ++i) {
+			for (final double[] c : candidates)
+				if ((int) Math.round(c[2]) == i && isInMask(c, o))
+					this.processCandidate(c, o, features, scratch);
+			if (!p.keepOctaves)
+				octave.release(i);
 		}
+		if (!p.keepOctaves)
+			releaseOctave(o);
 
 		return features;
 	}
 
+	/**
+	 * build an octave and detect each of its scales with its own detector as
+	 * concurrent tasks
+	 *
+	 * @param octave
+	 * @param found
+	 *          receives the candidates of each scale in decreasing scale order
+	 */
+	final private void detectTasks(final FloatArray2DScaleOctave octave, final List<Vector<double[]>> found) {
+		octave.build(true);
+		final int numScales = octave.getD().length - 2;
+		final List<Runnable> detections = new ArrayList<Runnable>();
+		for (int i = numScales; i >= 1; --i) {
+			final int scale = i;
+			final int k = found.size();
+			found.add(null);
+			detections.add(new Runnable() {
+				@Override
+				public void run() {
+					final FloatArray2DScaleOctaveDoGDetector detector = new FloatArray2DScaleOctaveDoGDetector();
+					detector.run(octave, scale);
+					found.set(k, detector.getCandidates());
+				}
+			});
+		}
+		Parallel.forkAll(detections);
+		if (!p.keepOctaves)
+			octave.releaseD();
+	}
+
+	/**
+	 * detect features in the specified scale octave, scales, detection and
+	 * descriptors are run as concurrent tasks
+	 *
+	 * @param o
+	 *          octave index
+	 *
+	 * @return detected features in the order of {@link #runOctave(int)}
+	 */
+	final private Vector<Feature> runOctaveTasks(final int o) {
+		final FloatArray2DScaleOctave octave = octaves[o];
+		final List<Vector<double[]>> found = new ArrayList<Vector<double[]>>();
+		if (p.fusedDoG) {
+			final FloatArray2DScaleOctaveDoGDetector detector = new FloatArray2DScaleOctaveDoGDetector();
+			detector.runFused(octave);
+			found.add(detector.getCandidates());
+		} else
+			detectTasks(octave, found);
+		final List<double[]> candidates = new ArrayList<double[]>();
+		for (final Vector<double[]> c : found)
+			for (final double[] ci : c)
+				if (isInMask(ci, o))
+					candidates.add(ci);
+		final AtomicIntegerArray remaining = countCandidates(candidates, o);
+
+		// describe chunks of candidates
+		final List<List<Feature>> described = new ArrayList<List<Feature>>();
+		final List<Runnable> descriptions = new ArrayList<Runnable>();
+		for (int start = 0; start < candidates.size(); start += CANDIDATES_PER_TASK) {
+			final List<double[]> chunk = candidates.subList(start,
+			    Math.min(candidates.size(), start + CANDIDATES_PER_TASK));
+			final List<Feature> features = new ArrayList<Feature>();
+			described.add(features);
+			descriptions.add(new Runnable() {
+				@Override
+				public void run() {
+					final Scratch scratch = new Scratch();
+					for (final double[] c : chunk)
+						describe(c, o, features, remaining, scratch);
+				}
+			});
+		}
+		Parallel.forkAll(descriptions);
+		if (!p.keepOctaves)
+			releaseOctave(o);
+		final Vector<Feature> features = new Vector<Feature>();
+		for (final List<Feature> f : described)
+			features.addAll(f);
+		return features;
+	}
+
+	/**
+	 * detect features in the given scale octaves, one after the other or, with
+	 * {@link Param#taskGraph}, all at once so that building an octave overlaps
+	 * with detecting and describing the others
+	 *
+	 * @param selected
+	 *          octave indices
+	 *
+	 * @return detected features
+	 */
+	final private Vector<Feature> runOctaves(final List<Integer> selected) {
+		final Vector<Feature> features = new Vector<Feature>();
+		numTiles = 0;
+		numSkippedTiles = 0;
+		if (!p.taskGraph || p.streaming) {
+			for (final int o : selected)
+				features.addAll(runOctave(o));
+			return features;
+		}
+
+		final List<Vector<Feature>> results = new ArrayList<Vector<Feature>>();
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		for (final int o : selected) {
+			createMasks(octaves[o]);
+			final int k = results.size();
+			results.add(null);
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					results.set(k, runOctaveTasks(o));
+				}
+			});
+		}
+		Parallel.forkAll(tasks);
+		for (final Vector<Feature> more : results)
+			features.addAll(more);
+		return features;
+	}
+
 	/**
 	 * detect features in all scale octaves
 	 *
 	 * @return detected features
 	 */
 	public Vector<Feature> run() {
-		final Vector<Feature> features = new Vector<Feature>();
+		final List<Integer> selected = new ArrayList<Integer>();
 		for (int o = 0; o < octaves.length; ++o) {
-			if (octaves[o].state == FloatArray2DScaleOctave.State.EMPTY)
-				continue;
-			final Vector<Feature> more = runOctave(o);
-			features.addAll(more);
+			if (octaves[o].state != FloatArray2DScaleOctave.State.EMPTY)
+				selected.add(o);
 		}
-		return features;
+		return runOctaves(selected);
 	}
 
 	/**
@@ -488,17 +1155,13 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 	 * @return detected features
 	 */
 	public Vector<Feature> run(final int max_size) {
-		final Vector<Feature> features = new Vector<Feature>();
+		final List<Integer> selected = new ArrayList<Integer>();
 		for (int o = 0; o < octaves.length; ++o) {
-			if (octaves[o].width <= max_size && octaves[o].height <= max_size) {
-				final Vector<Feature> more = runOctave(o);
-				features.addAll(more);
-			}
+			if (octaves[o].state != FloatArray2DScaleOctave.State.EMPTY && octaves[o].width <= max_size
+			    && octaves[o].height <= max_size)
+				selected.add(o);
 		}
-
-		// System.out.println( features.size() + " candidates processed in all
-		// octaves" );
-		return features;
+		return runOctaves(selected);
 	}
 
 	/**
@@ -646,11 +1309,15 @@ public class FloatArray2DSIFT extends FloatArray2DFeatureTransform<FloatArray2DS
 			sigma[i] = p.initialSigma * (float) Math.pow(2.0f, (float) i / (float) p.steps);
 			sigma_diff[i] = (float) Math.sqrt(sigma[i] * sigma[i] - p.initialSigma * p.initialSigma);
 
-			kernel_diff[i] = Filter.createGaussianKernel(sigma_diff[i], true);
+			kernel_diff[i] = KernelCache.gaussianKernel(sigma_diff[i]);
 		}
 	}
 
 	final public int getMaxOctaveSize() {
 		return p.maxOctaveSize;
 	}
+
+	final public void setMaxOctaveSize(final int maxOctaveSize) {
+		p.maxOctaveSize = maxOctaveSize;
+	}
 }
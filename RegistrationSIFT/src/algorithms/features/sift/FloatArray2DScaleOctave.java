@@ -1,5 +1,14 @@
 package algorithms.features.sift;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import algorithms.utils.BufferArena;
+import algorithms.utils.Parallel;
+import algorithms.utils.ScratchPool;
+import algorithms.utils.Util;
+
 /**
  * single octave of a discrete {@link FloatArray2DScaleSpace}
  * 
@@ -72,6 +81,194 @@ public class FloatArray2DScaleOctave {
 	 */
 	private float[][] KERNEL_DIFF;
 
+	public float[][] getKernelDiff() {
+		return KERNEL_DIFF;
+	}
+
+	/**
+	 * blur used to create the gaussian images from the first one
+	 */
+	private BlurEngine blurEngine = BlurEngine.FIR;
+
+	/**
+	 * build gaussian image i from image i - 1 instead of the first one
+	 */
+	private boolean cascade = false;
+
+	/**
+	 * sigma of the gaussian kernels creating each gaussian image from the
+	 * previous one, created by {@link #setCascade(boolean)}
+	 */
+	private float[] SIGMA_INC = null;
+	private float[][] KERNEL_INC = null;
+
+	/**
+	 * accuracy of the gradient orientations
+	 */
+	private GradientAccuracy gradientAccuracy = GradientAccuracy.EXACT;
+
+	/**
+	 * store the gradients as interleaved derivatives instead of amplitudes and
+	 * orientations
+	 */
+	private boolean interleavedGradients = false;
+
+	/**
+	 * compute gradients tile by tile where they are sampled
+	 */
+	private boolean sparseGradients = false;
+
+	/**
+	 * source of the image buffers, null for the {@link ScratchPool}
+	 */
+	private BufferArena arena = null;
+
+	public BlurEngine getBlurEngine() {
+		return blurEngine;
+	}
+
+	/**
+	 * @param blurEngine
+	 *          blur used by {@link #build()}, {@link #buildStub()} and
+	 *          {@link #getL1(int)}, sigmas below
+	 *          {@link RecursiveGaussian#MIN_SIGMA} are always convolved
+	 */
+	public void setBlurEngine(final BlurEngine blurEngine) {
+		this.blurEngine = blurEngine;
+	}
+
+	public boolean isCascade() {
+		return cascade;
+	}
+
+	/**
+	 * @param cascade
+	 *          let {@link #build()} create each gaussian image from the previous
+	 *          one with the incremental sigma sqrt(SIGMA[i]^2 - SIGMA[i - 1]^2),
+	 *          which needs much shorter kernels than blurring the first image
+	 *          with {@link #SIGMA_DIFF} but builds the images one after the
+	 *          other
+	 */
+	public void setCascade(final boolean cascade) {
+		this.cascade = cascade;
+		if (cascade && SIGMA_INC == null) {
+			SIGMA_INC = new float[SIGMA.length];
+			KERNEL_INC = new float[SIGMA.length][];
+			for (int i = 1; i < SIGMA.length; ++i) {
+				SIGMA_INC[i] = (float) Math.sqrt(SIGMA[i] * SIGMA[i] - SIGMA[i - 1] * SIGMA[i - 1]);
+				KERNEL_INC[i] = KernelCache.gaussianKernel(SIGMA_INC[i]);
+			}
+		}
+	}
+
+	public GradientAccuracy getGradientAccuracy() {
+		return gradientAccuracy;
+	}
+
+	/**
+	 * @param gradientAccuracy
+	 *          accuracy of the orientations of {@link #getL1(int)}
+	 */
+	public void setGradientAccuracy(final GradientAccuracy gradientAccuracy) {
+		this.gradientAccuracy = gradientAccuracy;
+	}
+
+	public boolean isInterleavedGradients() {
+		return interleavedGradients;
+	}
+
+	/**
+	 * @param interleavedGradients
+	 *          let the users of the octave sample gradients from
+	 *          {@link #getGradientComponents(int)} instead of {@link #getL1(int)},
+	 *          computing amplitudes and orientations only where they are sampled
+	 */
+	public void setInterleavedGradients(final boolean interleavedGradients) {
+		this.interleavedGradients = interleavedGradients;
+	}
+
+	public boolean isSparseGradients() {
+		return sparseGradients;
+	}
+
+	/**
+	 * @param sparseGradients
+	 *          let the users of the octave sample gradients from
+	 *          {@link #getSparseGradients(int)}, computing only the tiles they
+	 *          touch, this has precedence over
+	 *          {@link #setInterleavedGradients(boolean)}
+	 */
+	public void setSparseGradients(final boolean sparseGradients) {
+		this.sparseGradients = sparseGradients;
+	}
+
+	public BufferArena getArena() {
+		return arena;
+	}
+
+	/**
+	 * @param arena
+	 *          arena the buffers of the images and gradients are drawn from and
+	 *          returned to, null for the shared {@link ScratchPool}; set it
+	 *          before building the octave
+	 */
+	public void setArena(final BufferArena arena) {
+		this.arena = arena;
+	}
+
+	/**
+	 * create gaussian image i with the selected {@link BlurEngine}, from the
+	 * first image or incrementally from image i - 1
+	 * 
+	 * @param incremental
+	 *          blur image i - 1 with {@link #SIGMA_INC}, it must exist
+	 * @param temp
+	 *          buffer for the horizontal pass, null to borrow one
+	 */
+	private FloatArray2D blur(final int i, final boolean incremental, final FloatArray2D temp) {
+		if (temp == null) {
+			final FloatArray2D t = acquire();
+			final FloatArray2D li = blur(i, incremental, t);
+			recycle(t.data);
+			return li;
+		}
+		final FloatArray2D src = incremental ? l[i - 1] : l[0];
+		final float sigma = incremental ? SIGMA_INC[i] : SIGMA_DIFF[i];
+		if (blurEngine == BlurEngine.RECURSIVE && sigma >= RecursiveGaussian.MIN_SIGMA)
+			return KernelCache.recursiveGaussian(sigma).blur(src, acquire(), temp);
+		final float[] kernel = incremental ? KERNEL_INC[i] : KERNEL_DIFF[i];
+		return Filter.convolveSeparable(src, kernel, kernel, acquire(), temp);
+	}
+
+	/**
+	 * create gaussian image i like {@link #blur(int, boolean, FloatArray2D)}
+	 * and difference of gaussian image i - 1 into dog in the same pass where
+	 * the blur allows it
+	 * 
+	 * @param temp
+	 *          buffer for the horizontal pass
+	 * @param dog
+	 *          target of difference of gaussian image i - 1
+	 */
+	private FloatArray2D blur(final int i, final boolean incremental, final FloatArray2D temp, final FloatArray2D dog) {
+		final FloatArray2D src = incremental ? l[i - 1] : l[0];
+		final float sigma = incremental ? SIGMA_INC[i] : SIGMA_DIFF[i];
+		if (blurEngine == BlurEngine.RECURSIVE && sigma >= RecursiveGaussian.MIN_SIGMA) {
+			final FloatArray2D li = KernelCache.recursiveGaussian(sigma).blur(src, acquire(), temp);
+			difference(l[i - 1], li, dog);
+			return li;
+		}
+		final float[] kernel = incremental ? KERNEL_INC[i] : KERNEL_DIFF[i];
+		return Filter.convolveSeparable(src, kernel, kernel, acquire(), temp, l[i - 1], dog, K_MIN1_INV);
+	}
+
+	/**
+	 * @return the factor normalizing the difference of gaussian images
+	 */
+	public float getKMin1Inv() {
+		return K_MIN1_INV;
+	}
+
 	/**
 	 * gaussian smoothed images
 	 */
@@ -105,7 +302,7 @@ public class FloatArray2DScaleOctave {
 
 	/**
 	 * get the gradients of the corresponding gaussian image, generates it on
-	 * demand, if not yet available.
+	 * demand, if not yet available. Safe to call from concurrent tasks.
 	 * 
 	 * @param i
 	 *          index will not be checked for efficiency reasons, so take care
@@ -113,13 +310,102 @@ public class FloatArray2DScaleOctave {
 	 *
 	 * @returns reference to the gradients
 	 */
-	public FloatArray2D[] getL1(int i) {
+	public synchronized FloatArray2D[] getL1(int i) {
 		if (l1[i] == null) {
-			l1[i] = Filter.createGradients(l[i]);
+			if (l[i] == null)
+				l[i] = blur(i, false, null);
+			l1[i] = Filter.createGradients(l[i], gradientMask, gradientAccuracy,
+			    new FloatArray2D[] { acquire(), acquire() });
 		}
 		return l1[i];
 	}
 
+	/**
+	 * derivatives of the gaussian smoothed images, interleaved (dx, dy) per pixel
+	 */
+	private FloatArray2D[] lc;
+
+	/**
+	 * get the derivatives of the corresponding gaussian image interleaved as (dx,
+	 * dy) in an image of 2 * width x height, generates it on demand, if not yet
+	 * available. Amplitudes and orientations are given by
+	 * {@link Filter#amplitude(float, float)} and
+	 * {@link Filter#atan2(float, float, GradientAccuracy)}.
+	 * 
+	 * @param i
+	 *          index will not be checked for efficiency reasons, so take care
+	 *          that it is within a valid range
+	 *
+	 * @returns reference to the derivatives
+	 */
+	public synchronized FloatArray2D getGradientComponents(int i) {
+		if (lc[i] == null) {
+			if (l[i] == null)
+				l[i] = blur(i, false, null);
+			lc[i] = Filter.createGradientComponents(l[i], gradientMask,
+			    new FloatArray2D(acquire(2 * width * height), 2 * width, height));
+		}
+		return lc[i];
+	}
+
+	/**
+	 * gradients of the gaussian smoothed images computed tile by tile
+	 */
+	private SparseGradients[] ls;
+
+	/**
+	 * get the tile by tile gradients of the corresponding gaussian image,
+	 * tiles are computed on their first access. Gradient masks set by
+	 * {@link #setMasks(TileMask, TileMask)} are not applied.
+	 * 
+	 * @param i
+	 *          index will not be checked for efficiency reasons, so take care
+	 *          that it is within a valid range
+	 *
+	 * @returns reference to the gradients
+	 */
+	public synchronized SparseGradients getSparseGradients(int i) {
+		if (ls[i] == null) {
+			if (l[i] == null)
+				l[i] = blur(i, false, null);
+			ls[i] = new SparseGradients(l[i], gradientAccuracy, arena);
+		}
+		return ls[i];
+	}
+
+	/**
+	 * tiles to detect candidates in, null for all
+	 */
+	private TileMask detectionMask = null;
+
+	/**
+	 * tiles to compute gradients in, null for all
+	 */
+	private TileMask gradientMask = null;
+
+	public TileMask getDetectionMask() {
+		return detectionMask;
+	}
+
+	public TileMask getGradientMask() {
+		return gradientMask;
+	}
+
+	/**
+	 * restrict detection and gradient computation to tiles of the octave, the
+	 * gradient tiles have to cover the support of the descriptors of all
+	 * detection tiles
+	 * 
+	 * @param detection
+	 *          tiles to detect candidates in, null for all
+	 * @param gradients
+	 *          tiles to compute gradients in, null for all
+	 */
+	public void setMasks(final TileMask detection, final TileMask gradients) {
+		detectionMask = detection;
+		gradientMask = gradients;
+	}
+
 	/**
 	 * Constructor
 	 * 
@@ -156,12 +442,14 @@ public class FloatArray2DScaleOctave {
 			// System.out.println( "sigma[" + i + "] = " + SIGMA[ i ] + ";
 			// sigma_diff[" + i + "] = " + SIGMA_DIFF[ i ] );
 
-			KERNEL_DIFF[i] = Filter.createGaussianKernel(SIGMA_DIFF[i], true);
+			KERNEL_DIFF[i] = KernelCache.gaussianKernel(SIGMA_DIFF[i]);
 		}
 		l = new FloatArray2D[1];
 		l[0] = img;
 		d = null;
 		l1 = null;
+		lc = null;
+		ls = null;
 	}
 
 	/**
@@ -194,6 +482,8 @@ public class FloatArray2DScaleOctave {
 		l[0] = img;
 		d = null;
 		l1 = null;
+		lc = null;
+		ls = null;
 	}
 
 	/**
@@ -209,15 +499,33 @@ public class FloatArray2DScaleOctave {
 		FloatArray2D img = l[0];
 		l = new FloatArray2D[2];
 		l[0] = img;
-		l[1] = Filter.convolveSeparable(l[0], KERNEL_DIFF[STEPS], KERNEL_DIFF[STEPS]);
+		l[1] = blur(STEPS, false, null);
 
 		state = State.STUB;
 	}
 
 	/**
 	 * build the scale octave
+	 * 
+	 * In cascade mode (see {@link #setCascade(boolean)}) each gaussian image is
+	 * blurred from the previous one, the image of a stub is kept as is.
 	 */
 	public boolean build() {
+		return build(false);
+	}
+
+	/**
+	 * build the scale octave
+	 * 
+	 * @param parallel
+	 *          blur the gaussian images and compute the difference of gaussian
+	 *          images as concurrent tasks of the shared pool, each blur borrows
+	 *          its own buffer for the horizontal pass; ignored for the gaussian
+	 *          images in cascade mode
+	 * 
+	 * @see #build()
+	 */
+	public boolean build(final boolean parallel) {
 		FloatArray2D img = l[0];
 		FloatArray2D img2;
 		if (state == State.STUB) {
@@ -227,23 +535,54 @@ public class FloatArray2DScaleOctave {
 		} else
 			l = new FloatArray2D[STEPS + 3];
 		l[0] = img;
-		for (int i = 1; i < SIGMA_DIFF.length; ++i) {
-			if (state == State.STUB && i == STEPS)
-				continue;
-			l[i] = Filter.convolveSeparable(l[0], KERNEL_DIFF[i], KERNEL_DIFF[i]);
+		final boolean stub = state == State.STUB;
+		if (parallel && !cascade) {
+			final List<Runnable> blurs = new ArrayList<Runnable>();
+			for (int i = 1; i < SIGMA_DIFF.length; ++i) {
+				if (stub && i == STEPS)
+					continue;
+				final int s = i;
+				blurs.add(new Runnable() {
+					@Override
+					public void run() {
+						l[s] = blur(s, false, null);
+					}
+				});
+			}
+			Parallel.forkAll(blurs);
+		} else {
+			// all scales share one buffer for the horizontal pass
+			final FloatArray2D temp = acquire();
+			for (int i = 1; i < SIGMA_DIFF.length; ++i) {
+				if (stub && i == STEPS)
+					continue;
+				l[i] = blur(i, cascade, temp);
+			}
+			recycle(temp.data);
 		}
 		d = new FloatArray2D[STEPS + 2];
+		final List<Runnable> differences = new ArrayList<Runnable>();
 		for (int i = 0; i < d.length; ++i) {
-			d[i] = new FloatArray2D(l[i].width, l[i].height);
-			int j = i + 1;
-			for (int k = 0; k < l[i].data.length; ++k) {
-				d[i].data[k] = (l[j].data[k] - l[i].data[k]) * K_MIN1_INV;
-			}
+			final int s = i;
+			differences.add(new Runnable() {
+				@Override
+				public void run() {
+					d[s] = acquire();
+					difference(l[s], l[s + 1], d[s]);
+				}
+			});
 		}
+		if (parallel)
+			Parallel.forkAll(differences);
+		else
+			for (final Runnable difference : differences)
+				difference.run();
 		l1 = new FloatArray2D[STEPS + 3][];
 		for (int i = 0; i < l1.length; ++i) {
 			l1[i] = null;
 		}
+		lc = new FloatArray2D[STEPS + 3];
+		ls = new SparseGradients[STEPS + 3];
 
 		state = State.COMPLETE;
 
@@ -251,13 +590,200 @@ public class FloatArray2DScaleOctave {
 	}
 
 	/**
-	 * clear the scale octave to save memory
+	 * write the difference of two gaussian images a and b into dog
+	 */
+	private void difference(final FloatArray2D a, final FloatArray2D b, final FloatArray2D dog) {
+		if (Filter.VECTOR != null)
+			Filter.VECTOR.difference(a.data, b.data, K_MIN1_INV, dog.data, 0, a.data.length);
+		else
+			for (int k = 0; k < a.data.length; ++k) {
+				dog.data[k] = (b.data[k] - a.data[k]) * K_MIN1_INV;
+			}
+	}
+
+	/**
+	 * Receives the difference of gaussian images of
+	 * {@link FloatArray2DScaleOctave#buildFused(DoGListener)}.
+	 */
+	public interface DoGListener {
+		/**
+		 * difference of gaussian images i - 1, i and i + 1 are available
+		 * 
+		 * @param d
+		 *          difference of gaussian images, only those of the current ring
+		 *          are set, the others are null
+		 * @param i
+		 *          scale index, 1 <= i <= d.length - 2
+		 */
+		void scale(FloatArray2D[] d, int i);
+	}
+
+	/**
+	 * build the gaussian images of the scale octave one after the other and
+	 * write each difference of gaussian image in the vertical convolution pass
+	 * creating the second of its gaussian images. Only a ring of three
+	 * difference of gaussian images is kept, it is handed to the listener for
+	 * each scale as soon as it is complete and recycled afterwards. The
+	 * difference of gaussian images are not available when the octave is built.
+	 * 
+	 * Difference of gaussian images created by the {@link BlurEngine#RECURSIVE}
+	 * engine or of the image kept from the stub are computed in a separate
+	 * pass.
+	 * 
+	 * @param listener
+	 *          receives scales 1 to STEPS in increasing order
+	 */
+	public void buildFused(final DoGListener listener) {
+		FloatArray2D img = l[0];
+		final boolean stub = state == State.STUB;
+		final FloatArray2D img2 = stub ? l[1] : null;
+		l = new FloatArray2D[STEPS + 3];
+		l[0] = img;
+		l[STEPS] = img2;
+		d = new FloatArray2D[STEPS + 2];
+		final FloatArray2D[] ring = new FloatArray2D[] { acquire(), acquire(), acquire() };
+		final FloatArray2D temp = acquire();
+		for (int i = 1; i < SIGMA_DIFF.length; ++i) {
+			final int j = i - 1;
+			if (j >= 3)
+				d[j - 3] = null;
+			d[j] = ring[j % 3];
+			if (stub && i == STEPS)
+				difference(l[j], l[i], d[j]);
+			else
+				l[i] = blur(i, cascade, temp, d[j]);
+			if (j >= 2)
+				listener.scale(d, j - 1);
+		}
+		recycle(temp.data);
+		for (final FloatArray2D r : ring)
+			recycle(r.data);
+		d = null;
+		l1 = new FloatArray2D[STEPS + 3][];
+		lc = new FloatArray2D[STEPS + 3];
+		ls = new SparseGradients[STEPS + 3];
+
+		state = State.COMPLETE;
+	}
+
+	/**
+	 * prepare the scale octave without building its gaussian and difference of
+	 * gaussian images, gaussian images are built on demand by
+	 * {@link #getL1(int)}
+	 * 
+	 * Use this method with {@link FloatArray2DStreamingDoGDetector} which does
+	 * not need the materialized images.
+	 */
+	public void buildLazy() {
+		FloatArray2D img = l[0];
+		FloatArray2D img2 = state == State.STUB ? l[1] : null;
+		l = new FloatArray2D[STEPS + 3];
+		l[0] = img;
+		l[STEPS] = img2;
+		d = null;
+		l1 = new FloatArray2D[STEPS + 3][];
+		lc = new FloatArray2D[STEPS + 3];
+		ls = new SparseGradients[STEPS + 3];
+
+		state = State.COMPLETE;
+	}
+
+	/**
+	 * release the difference of gaussian images to save memory once the
+	 * candidates have been detected
+	 */
+	public synchronized void releaseD() {
+		if (d != null)
+			for (final FloatArray2D di : d)
+				recycle(di.data);
+		d = null;
+	}
+
+	/**
+	 * release the gaussian image, gradients and derivatives of scale i to save
+	 * memory, they are built again on demand by {@link #getL1(int)},
+	 * {@link #getGradientComponents(int)} and {@link #getSparseGradients(int)}
+	 * 
+	 * @param i
+	 *          scale index
+	 */
+	public synchronized void release(int i) {
+		if (l1[i] != null) {
+			recycle(l1[i][0].data);
+			recycle(l1[i][1].data);
+			l1[i] = null;
+		}
+		if (lc[i] != null) {
+			recycle(lc[i].data);
+			lc[i] = null;
+		}
+		if (ls[i] != null) {
+			ls[i].release();
+			ls[i] = null;
+		}
+		if (i > 0 && l[i] != null) {
+			recycle(l[i].data);
+			l[i] = null;
+		}
+	}
+
+	/**
+	 * @return an image of the size of the octave backed by a pooled buffer
+	 */
+	private FloatArray2D acquire() {
+		return new FloatArray2D(acquire(width * height), width, height);
+	}
+
+	/**
+	 * @return a buffer of the given length from the arena or the
+	 *         {@link ScratchPool}
+	 */
+	private float[] acquire(final int length) {
+		return arena == null ? ScratchPool.acquire(length) : arena.acquire(length);
+	}
+
+	/**
+	 * return a buffer to the arena or the {@link ScratchPool}
+	 */
+	private void recycle(final float[] a) {
+		if (arena == null)
+			ScratchPool.release(a);
+		else
+			arena.release(a);
+	}
+
+	/**
+	 * clear the scale octave to save memory, the buffers of all images but the
+	 * first gaussian image are returned to the arena or the {@link ScratchPool}
 	 */
 	public void clear() {
+		if (l != null)
+			for (int i = 1; i < l.length; ++i)
+				if (l[i] != null)
+					recycle(l[i].data);
+		if (d != null)
+			for (final FloatArray2D di : d)
+				recycle(di.data);
+		if (l1 != null)
+			for (final FloatArray2D[] l1i : l1)
+				if (l1i != null) {
+					recycle(l1i[0].data);
+					recycle(l1i[1].data);
+				}
+		if (lc != null)
+			for (final FloatArray2D lci : lc)
+				if (lci != null)
+					recycle(lci.data);
+		if (ls != null)
+			for (final SparseGradients lsi : ls)
+				if (lsi != null)
+					lsi.release();
 		this.state = State.EMPTY;
 		this.d = null;
 		this.l = null;
 		this.l1 = null;
+		this.lc = null;
+		this.ls = null;
 	}
 
 	/**
@@ -276,15 +802,297 @@ public class FloatArray2DScaleOctave {
 		int ws = 2 * src.width;
 		int rs = 0;
 		for (int r = 0; r < dst.data.length; r += dst.width) {
-			int xs = 0;
-			for (int x = 0; x < dst.width; ++x) {
-				dst.data[r + x] = src.data[rs + xs];
-				xs += 2;
+			if (Filter.VECTOR != null)
+				Filter.VECTOR.downsampleRow(src.data, rs, dst.data, r, dst.width);
+			else {
+				int xs = 0;
+				for (int x = 0; x < dst.width; ++x) {
+					dst.data[r + x] = src.data[rs + xs];
+					xs += 2;
+				}
 			}
 			rs += ws;
 		}
 	}
 
+	/**
+	 * downsample an image stored outside of the heap like
+	 * {@link #downsample(FloatArray2D, FloatArray2D)}, bands of rows are
+	 * processed in parallel
+	 * 
+	 * @param src
+	 *          the source image
+	 * @param dst
+	 *          destination image of (src.width + 1) / 2 x (src.height + 1) / 2
+	 */
+	public static void downsample(final DirectFloatArray2D src, final DirectFloatArray2D dst) {
+		Parallel.forRows(src.width, dst.height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final float[] in = new float[src.width];
+				final float[] out = new float[dst.width];
+				for (int y = start; y < end; ++y) {
+					src.readRow(0, 2 * y, src.width, in, 0);
+					if (Filter.VECTOR != null)
+						Filter.VECTOR.downsampleRow(in, 0, out, 0, dst.width);
+					else
+						for (int x = 0; x < dst.width; ++x)
+							out[x] = in[2 * x];
+					dst.writeRow(0, y, dst.width, out, 0);
+				}
+			}
+		});
+	}
+
+	/**
+	 * write the difference of gaussian image dog = (b - a) * s of two gaussian
+	 * images stored outside of the heap, bands of rows are processed in
+	 * parallel
+	 * 
+	 * @param s
+	 *          normalization of the difference, see {@link #getKMin1Inv()}
+	 */
+	public static void difference(final DirectFloatArray2D a, final DirectFloatArray2D b, final float s,
+	    final DirectFloatArray2D dog) {
+		final int width = a.width;
+		Parallel.forRows(width, a.height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final float[] ra = new float[width];
+				final float[] rb = new float[width];
+				final float[] rd = new float[width];
+				for (int y = start; y < end; ++y) {
+					a.readRow(0, y, width, ra, 0);
+					b.readRow(0, y, width, rb, 0);
+					if (Filter.VECTOR != null)
+						Filter.VECTOR.difference(ra, rb, s, rd, 0, width);
+					else
+						for (int x = 0; x < width; ++x)
+							rd[x] = (rb[x] - ra[x]) * s;
+					dog.writeRow(0, y, width, rd, 0);
+				}
+			}
+		});
+	}
+
+	/**
+	 * downscale {@link src} into {@link dst} by averaging the area each
+	 * destination pixel covers in the source image
+	 * 
+	 * Power of two ratios are reduced by repeated 2x2 box averaging. Rows are
+	 * processed in parallel.
+	 * 
+	 * @param src
+	 *          the source image
+	 * @param dst
+	 *          destination image, not larger than src in either dimension
+	 */
+	public static void downscale(FloatArray2D src, final FloatArray2D dst) {
+		// intermediate halves are pooled, the caller's source is not
+		final FloatArray2D input = src;
+		while (src.width >= 2 * dst.width && src.height >= 2 * dst.height && src.width % dst.width == 0
+		    && src.height % dst.height == 0 && Integer.bitCount(src.width / dst.width) == 1
+		    && Integer.bitCount(src.height / dst.height) == 1) {
+			if (src.width == 2 * dst.width && src.height == 2 * dst.height) {
+				downsampleBox(src, dst);
+				if (src != input)
+					ScratchPool.release(src.data);
+				return;
+			}
+			final FloatArray2D half = new FloatArray2D(ScratchPool.acquire(src.width / 2 * (src.height / 2)),
+			    src.width / 2, src.height / 2);
+			downsampleBox(src, half);
+			if (src != input)
+				ScratchPool.release(src.data);
+			src = half;
+		}
+		if (src.width == dst.width && src.height == dst.height)
+			System.arraycopy(src.data, 0, dst.data, 0, dst.data.length);
+		else
+			downscale(new FloatArray2DImageSource(src), dst);
+		if (src != input)
+			ScratchPool.release(src.data);
+	}
+
+	/**
+	 * downscale {@link src} into {@link dst} by averaging the area each
+	 * destination pixel covers in the source image
+	 * 
+	 * The source is read row by row, rows of {@link dst} are processed in
+	 * parallel.
+	 * 
+	 * @param src
+	 *          the source image
+	 * @param dst
+	 *          destination image, not larger than src in either dimension
+	 */
+	public static void downscale(final ImageSource src, final FloatArray2D dst) {
+		final int width = src.getWidth();
+		final AreaWeights wx = new AreaWeights(width, dst.width);
+		final AreaWeights wy = new AreaWeights(src.getHeight(), dst.height);
+		Parallel.forRows(width, dst.height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final float[] in = new float[width];
+				final float[] row = new float[width];
+				for (int y = start; y < end; ++y) {
+					// weighted sum of the covered source rows
+					Arrays.fill(row, 0);
+					for (int i = wy.start[y], k = wy.offset[y]; i < wy.start[y] + wy.count[y]; ++i, ++k) {
+						final float w = wy.weights[k];
+						src.readRow(0, i, width, in, 0);
+						for (int x = 0; x < width; ++x)
+							row[x] += w * in[x];
+					}
+					// weighted sum of the covered columns
+					final int rd = y * dst.width;
+					for (int x = 0; x < dst.width; ++x) {
+						float val = 0;
+						for (int i = wx.start[x], k = wx.offset[x]; i < wx.start[x] + wx.count[x]; ++i, ++k)
+							val += wx.weights[k] * row[i];
+						dst.data[rd + x] = val;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * downsample {@link src} by averaging 2x2 blocks into {@link dst}
+	 * 
+	 * The dimensions of {@link dst} are not checked, dst.width == src.width / 2
+	 * && dst.height == src.height / 2 is expected, remaining odd rows and
+	 * columns of src are ignored.
+	 * 
+	 * @param src
+	 *          the source image
+	 * @param dst
+	 *          destination image
+	 */
+	public static void downsampleBox(final FloatArray2D src, final FloatArray2D dst) {
+		Parallel.forRows(src.width, dst.height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int y = start; y < end; ++y) {
+					final int rs1 = 2 * y * src.width;
+					final int rs2 = rs1 + src.width;
+					final int rd = y * dst.width;
+					for (int x = 0, xs = 0; x < dst.width; ++x, xs += 2)
+						dst.data[rd + x] = 0.25f
+						    * (src.data[rs1 + xs] + src.data[rs1 + xs + 1] + src.data[rs2 + xs] + src.data[rs2 + xs + 1]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * coverage of the source pixels by each destination pixel when reducing
+	 * a dimension of size n to m
+	 */
+	final static class AreaWeights {
+		/**
+		 * first covered source pixel, number of covered source pixels and offset
+		 * of their weights in {@link #weights} per destination pixel
+		 */
+		final int[] start, count, offset;
+		final float[] weights;
+
+		AreaWeights(final int n, final int m) {
+			start = new int[m];
+			count = new int[m];
+			offset = new int[m];
+			final double s = (double) n / m;
+			int k = 0;
+			for (int i = 0; i < m; ++i) {
+				final double a = i * s;
+				final double b = Math.min(n, (i + 1) * s);
+				start[i] = (int) a;
+				count[i] = Math.min(n, (int) Math.ceil(b)) - start[i];
+				offset[i] = k;
+				k += count[i];
+			}
+			weights = new float[k];
+			for (int i = 0; i < m; ++i) {
+				final double a = i * s;
+				final double b = Math.min(n, (i + 1) * s);
+				for (int j = 0; j < count[i]; ++j) {
+					final int p = start[i] + j;
+					weights[offset[i] + j] = (float) ((Math.min(p + 1, b) - Math.max(p, a)) / s);
+				}
+			}
+		}
+	}
+
+	/**
+	 * upsample {@link src} by bilinear interpolation and convolve it with a
+	 * symmetric kernel into {@link dst} in one pass, creating the double
+	 * resolution first octave without materializing the interpolated image
+	 * 
+	 * Each source row is interpolated and convolved horizontally on the fly.
+	 * As interpolation and convolution are both linear, the vertical
+	 * interpolation is applied to the horizontally convolved rows while
+	 * convolving vertically. Only one temporary buffer of half the size of
+	 * {@link dst} is required, it is borrowed from the {@link ScratchPool}.
+	 * 
+	 * The dimensions of {@link dst} are not checked, dst.width == 2 * src.width
+	 * - 1 && dst.height == 2 * src.height - 1 is expected.
+	 * 
+	 * @param src
+	 *          the source image
+	 * @param kernel
+	 *          horizontal and vertical kernel
+	 * @param dst
+	 *          destination image
+	 */
+	public static void upsampleConvolve(final FloatArray2D src, final float[] kernel, final FloatArray2D dst) {
+		final int l = kernel.length / 2;
+		final int w = dst.width;
+		final FloatArray2D temp = new FloatArray2D(ScratchPool.acquire(w * src.height), w, src.height);
+
+		// interpolate and convolve horizontally
+		Parallel.forRows(w, src.height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final float[] row = new float[w + 2 * l];
+				for (int y = start; y < end; ++y) {
+					final int rs = y * src.width;
+					row[l] = src.data[rs];
+					for (int xs = 1, xd = l + 2; xs < src.width; ++xs, xd += 2) {
+						row[xd] = src.data[rs + xs];
+						row[xd - 1] = (src.data[rs + xs - 1] + src.data[rs + xs]) / 2.0f;
+					}
+					Filter.mirrorBorders(row, w, l);
+					Filter.convolveRow(row, w, kernel, temp.data, y * w);
+				}
+			}
+		});
+
+		// interpolate and convolve vertically
+		Parallel.forRows(w, dst.height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final int[] r1 = new int[kernel.length];
+				final int[] r2 = new int[kernel.length];
+				for (int y = start; y < end; ++y) {
+					// rows of temp contributing to the interpolated rows y - l ... y + l
+					for (int k = 0; k < kernel.length; ++k) {
+						final int yd = Util.pingPong(y + k - l, dst.height);
+						r1[k] = (yd / 2) * w;
+						r2[k] = ((yd + 1) / 2) * w;
+					}
+					final int rd = y * w;
+					for (int x = 0; x < w; ++x) {
+						float val = 0;
+						for (int k = 0; k < kernel.length; ++k)
+							val += kernel[k] * (temp.data[r1[k] + x] + temp.data[r2[k] + x]);
+						dst.data[rd + x] = val / 2.0f;
+					}
+				}
+			}
+		});
+		ScratchPool.release(temp.data);
+	}
+
 	/**
 	 * upsample {@link src} by linearly interpolating into {@link dst}
 	 * 
@@ -1,5 +1,7 @@
 package algorithms.features.sift;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
 
 import algorithms.utils.Matrix3x3;
@@ -62,337 +64,510 @@ public class FloatArray2DScaleOctaveDoGDetector {
 		detectCandidates();
 	}
 
+	/**
+	 * detect the candidates of difference of gaussian image i only, the
+	 * candidates of all images are found in the order of
+	 * {@link #run(FloatArray2DScaleOctave)} by running i from
+	 * <code>d.length - 2</code> down to 1
+	 * 
+	 * @param o
+	 * @param i
+	 *          scale index, 1 <= i <= d.length - 2
+	 */
+	public void run(final FloatArray2DScaleOctave o, final int i) {
+		octave = o;
+		candidates = new Vector<double[]>();
+		final FloatArray2D[] d = octave.getD();
+		for (int y = d[i].height - 2; y >= 1; --y)
+			detectRow(d, i, y, 0, d[i].height, octave.getDetectionMask(), candidates, null);
+	}
+
+	/**
+	 * build the octave by {@link FloatArray2DScaleOctave#buildFused(DoGListener)}
+	 * and detect the candidates of each scale in its ring of three difference
+	 * of gaussian images as soon as it is complete.
+	 * 
+	 * Localizations moving a candidate to a neighbouring scale need images
+	 * outside of the ring, such candidates are deferred until all gaussian
+	 * images exist and then detected again in windows of rows of the
+	 * difference of gaussian images computed from the gaussian images. The
+	 * candidates are thus the same and in the same order as those of
+	 * {@link #run(FloatArray2DScaleOctave)}.
+	 * 
+	 * @param o
+	 */
+	public void runFused(final FloatArray2DScaleOctave o) {
+		octave = o;
+		final TileMask mask = octave.getDetectionMask();
+		final List<Vector<double[]>> found = new ArrayList<Vector<double[]>>();
+		final List<double[]> deferred = new ArrayList<double[]>();
+		octave.buildFused(new FloatArray2DScaleOctave.DoGListener() {
+			@Override
+			public void scale(final FloatArray2D[] d, final int i) {
+				final Vector<double[]> c = new Vector<double[]>();
+				for (int y = d[i].height - 2; y >= 1; --y)
+					detectRow(d, i, y, 0, d[i].height, mask, c, deferred);
+				found.add(c);
+			}
+		});
+
+		if (!deferred.isEmpty()) {
+			final FloatArray2D[] l = octave.getL();
+			final FloatArray2D[] windows = new FloatArray2D[l.length - 1];
+			for (int j = 0; j < windows.length; ++j)
+				windows[j] = new FloatArray2D(l[0].width, 2 * R + 1);
+			for (final double[] c : deferred)
+				detectDeferred(c, windows);
+		}
+
+		candidates = new Vector<double[]>();
+		for (int i = found.size() - 1; i >= 0; --i)
+			for (final double[] c : found.get(i))
+				if (!Double.isNaN(c[0]))
+					candidates.add(c);
+	}
+
+	/**
+	 * Rows and columns around a deferred candidate covering the extremum test
+	 * and the up to 6 localization steps, each moving the candidate by at most
+	 * one row and column.
+	 */
+	final static private int R = 7;
+
+	/**
+	 * detect a deferred candidate again in windows of rows of all difference of
+	 * gaussian images, only the neighbourhood of the candidate is computed from
+	 * the gaussian images of the octave
+	 * 
+	 * @param c
+	 *          0=>x, 1=>y, 2=>scale index of the tested extremum, replaced by
+	 *          the candidate or NaN if it is rejected
+	 * @param windows
+	 *          2 * R + 1 rows of the width of the octave per difference of
+	 *          gaussian image
+	 */
+	private void detectDeferred(final double[] c, final FloatArray2D[] windows) {
+		final int x = (int) c[0];
+		final int y = (int) c[1];
+		final int i = (int) c[2];
+		final FloatArray2D[] l = octave.getL();
+		final float k = octave.getKMin1Inv();
+		final int width = l[0].width;
+		final int height = l[0].height;
+		final int y0 = Math.max(0, y - R);
+		final int y1 = Math.min(height, y + R + 1);
+		final int x0 = Math.max(0, x - R);
+		final int x1 = Math.min(width, x + R + 1);
+		for (int j = 0; j < windows.length; ++j) {
+			final float[] a = l[j].data;
+			final float[] b = l[j + 1].data;
+			final float[] w = windows[j].data;
+			for (int yy = y0; yy < y1; ++yy)
+				for (int xx = x0, p = (yy - y0) * width + x0, q = yy * width + x0; xx < x1; ++xx, ++p, ++q)
+					w[p] = (b[q] - a[q]) * k;
+		}
+		final List<double[]> found = new ArrayList<double[]>(1);
+		detectRow(windows, i, y, -y0 * width, height, x, x + 1, found, null);
+		if (found.isEmpty())
+			c[0] = Double.NaN;
+		else
+			System.arraycopy(found.get(0), 0, c, 0, 3);
+	}
+
 	private void detectCandidates() {
 		final FloatArray2D[] d = octave.getD();
 
 		for (int i = d.length - 2; i >= 1; --i) {
-			final int ia = i - 1;
-			final int ib = i + 1;
 			for (int y = d[i].height - 2; y >= 1; --y) {
-				final int r = y * d[i].width;
-				final int ra = r - d[i].width;
-				final int rb = r + d[i].width;
-
-				X: for (int x = d[i].width - 2; x >= 1; --x) {
-					int ic = i;
-					int iac = ia;
-					int ibc = ib;
-					int yc = y;
-					int rc = r;
-					int rac = ra;
-					int rbc = rb;
-					int xc = x;
-					int xa = xc - 1;
-					int xb = xc + 1;
-					double e111 = d[ic].data[r + xc];
-
-					// check if d(x, y, i) is an extremum
-					// do it pipeline-friendly ;)
-
-					double e000 = d[iac].data[rac + xa];
-					boolean isMax = e000 < e111;
-					boolean isMin = e000 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e100 = d[iac].data[rac + xc];
-					isMax &= e100 < e111;
-					isMin &= e100 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e200 = d[iac].data[rac + xb];
-					isMax &= e200 < e111;
-					isMin &= e200 > e111;
-					if (!(isMax || isMin))
-						continue;
-
-					double e010 = d[iac].data[rc + xa];
-					isMax &= e010 < e111;
-					isMin &= e010 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e110 = d[iac].data[rc + xc];
-					isMax &= e110 < e111;
-					isMin &= e110 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e210 = d[iac].data[rc + xb];
-					isMax &= e210 < e111;
-					isMin &= e210 > e111;
-					if (!(isMax || isMin))
-						continue;
-
-					double e020 = d[iac].data[rbc + xa];
-					isMax &= e020 < e111;
-					isMin &= e020 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e120 = d[iac].data[rbc + xc];
-					isMax &= e120 < e111;
-					isMin &= e120 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e220 = d[iac].data[rbc + xb];
-					isMax &= e220 < e111;
-					isMin &= e220 > e111;
-					if (!(isMax || isMin))
-						continue;
-
-					double e001 = d[ic].data[rac + xa];
-					isMax &= e001 < e111;
-					isMin &= e001 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e101 = d[ic].data[rac + xc];
-					isMax &= e101 < e111;
-					isMin &= e101 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e201 = d[ic].data[rac + xb];
-					isMax &= e201 < e111;
-					isMin &= e201 > e111;
-					if (!(isMax || isMin))
-						continue;
-
-					double e011 = d[ic].data[rc + xa];
-					isMax &= e011 < e111;
-					isMin &= e011 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e211 = d[ic].data[rc + xb];
-					isMax &= e211 < e111;
-					isMin &= e211 > e111;
-					if (!(isMax || isMin))
-						continue;
-
-					double e021 = d[ic].data[rbc + xa];
-					isMax &= e021 < e111;
-					isMin &= e021 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e121 = d[ic].data[rbc + xc];
-					isMax &= e121 < e111;
-					isMin &= e121 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e221 = d[ic].data[rbc + xb];
-					isMax &= e221 < e111;
-					isMin &= e221 > e111;
-					if (!(isMax || isMin))
-						continue;
-
-					double e002 = d[ibc].data[rac + xa];
-					isMax &= e002 < e111;
-					isMin &= e002 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e102 = d[ibc].data[rac + xc];
-					isMax &= e102 < e111;
-					isMin &= e102 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e202 = d[ibc].data[rac + xb];
-					isMax &= e202 < e111;
-					isMin &= e202 > e111;
-					if (!(isMax || isMin))
-						continue;
-
-					double e012 = d[ibc].data[rc + xa];
-					isMax &= e012 < e111;
-					isMin &= e012 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e112 = d[ibc].data[rc + xc];
-					isMax &= e112 < e111;
-					isMin &= e112 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e212 = d[ibc].data[rc + xb];
-					isMax &= e212 < e111;
-					isMin &= e212 > e111;
-					if (!(isMax || isMin))
-						continue;
-
-					double e022 = d[ibc].data[rbc + xa];
-					isMax &= e022 < e111;
-					isMin &= e022 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e122 = d[ibc].data[rbc + xc];
-					isMax &= e122 < e111;
-					isMin &= e122 > e111;
-					if (!(isMax || isMin))
-						continue;
-					double e222 = d[ibc].data[rbc + xb];
-					isMax &= e222 < e111;
-					isMin &= e222 > e111;
-					if (!(isMax || isMin))
-						continue;
-
-					// so it is an extremum, try to localize it with subpixel
-					// accuracy, if it has to be moved for more than 0.5 in at
-					// least one direction, try it again there but maximally 5
-					// times
-
-					boolean isLocalized = false;
-					boolean isLocalizable = true;
-
-					double dx;
-					double dy;
-					double di;
-
-					double dxx;
-					double dyy;
-					double dii;
-
-					double dxy;
-					double dxi;
-					double dyi;
-
-					double ox;
-					double oy;
-					double oi;
-
-					double od = Double.MAX_VALUE; // offset square distance
-
-					double fx = 0;
-					double fy = 0;
-					double fi = 0;
-
-					int t = 5; // maximal number of re-localizations
-					do {
-						--t;
-
-						// derive at (x, y, i) by center of difference
-						dx = (e211 - e011) / 2.0f;
-						dy = (e121 - e101) / 2.0f;
-						di = (e112 - e110) / 2.0f;
-
-						// create hessian at (x, y, i) by laplace
-						final double e111_2 = 2.0f * e111;
-						dxx = e011 - e111_2 + e211;
-						dyy = e101 - e111_2 + e121;
-						dii = e110 - e111_2 + e112;
-
-						dxy = (e221 - e021 - e201 + e001) / 4.0f;
-						dxi = (e212 - e012 - e210 + e010) / 4.0f;
-						dyi = (e122 - e102 - e120 + e100) / 4.0f;
-
-						// invert hessian
-						final double det = Matrix3x3.det(dxx, dxy, dxi, dxy, dyy, dyi, dxi, dyi, dii);
-						if (det == 0)
-							continue X;
+				detectRow(d, i, y, 0, d[i].height, octave.getDetectionMask(), candidates, null);
+			}
+		}
+	}
 
-						final double det1 = 1.0 / det;
-
-						final double hixx = (dyy * dii - dyi * dyi) * det1;
-						final double hixy = (dxi * dyi - dxy * dii) * det1;
-						final double hixi = (dxy * dyi - dxi * dyy) * det1;
-						final double hiyy = (dxx * dii - dxi * dxi) * det1;
-						final double hiyi = (dxi * dxy - dxx * dyi) * det1;
-						final double hiii = (dxx * dyy - dxy * dxy) * det1;
-
-						// localize
-						ox = -hixx * dx - hixy * dy - hixi * di;
-						oy = -hixy * dx - hiyy * dy - hiyi * di;
-						oi = -hixi * dx - hiyi * dy - hiii * di;
-
-						final double odc = ox * ox + oy * oy + oi * oi;
-
-						if (odc < 2.0f) {
-							if ((Math.abs(ox) > 0.5 || Math.abs(oy) > 0.5 || Math.abs(oi) > 0.5) && odc < od) {
-								od = odc;
-
-								xc = (int) Math.round(xc + ox);
-								yc = (int) Math.round(yc + oy);
-								ic = (int) Math.round(ic + oi);
-
-								if (xc < 1 || yc < 1 || ic < 1 || xc > d[0].width - 2 || yc > d[0].height - 2 || ic > d.length - 2)
-									isLocalizable = false;
-								else {
-									xa = xc - 1;
-									xb = xc + 1;
-									rc = yc * d[ic].width;
-									rac = rc - d[ic].width;
-									rbc = rc + d[ic].width;
-									iac = ic - 1;
-									ibc = ic + 1;
-
-									e000 = d[iac].data[rac + xa];
-									e100 = d[iac].data[rac + xc];
-									e200 = d[iac].data[rac + xb];
-
-									e010 = d[iac].data[rc + xa];
-									e110 = d[iac].data[rc + xc];
-									e210 = d[iac].data[rc + xb];
-
-									e020 = d[iac].data[rbc + xa];
-									e120 = d[iac].data[rbc + xc];
-									e220 = d[iac].data[rbc + xb];
-
-									e001 = d[ic].data[rac + xa];
-									e101 = d[ic].data[rac + xc];
-									e201 = d[ic].data[rac + xb];
-
-									e011 = d[ic].data[rc + xa];
-									e111 = d[ic].data[rc + xc];
-									e211 = d[ic].data[rc + xb];
-
-									e021 = d[ic].data[rbc + xa];
-									e121 = d[ic].data[rbc + xc];
-									e221 = d[ic].data[rbc + xb];
-
-									e002 = d[ibc].data[rac + xa];
-									e102 = d[ibc].data[rac + xc];
-									e202 = d[ibc].data[rac + xb];
-
-									e012 = d[ibc].data[rc + xa];
-									e112 = d[ibc].data[rc + xc];
-									e212 = d[ibc].data[rc + xb];
-
-									e022 = d[ibc].data[rbc + xa];
-									e122 = d[ibc].data[rbc + xc];
-									e222 = d[ibc].data[rbc + xb];
-								}
-							} else {
-								fx = xc + ox;
-								fy = yc + oy;
-								fi = ic + oi;
-
-								if (fx < 0 || fy < 0 || fi < 0 || fx > d[0].width - 1 || fy > d[0].height - 1 || fi > d.length - 1)
-									isLocalizable = false;
-								else
-									isLocalized = true;
-							}
-						} else
+	/**
+	 * detect the candidates in the active tiles of row y of difference of
+	 * gaussian image i
+	 * 
+	 * @param mask
+	 *          tiles to detect in, null for all
+	 * 
+	 * @see #detectRow(FloatArray2D[], int, int, int, int, int, int, List, List)
+	 */
+	static void detectRow(final FloatArray2D[] d, final int i, final int y, final int base, final int height,
+	    final TileMask mask, final List<double[]> candidates, final List<double[]> deferred) {
+		final int width = d[i].width;
+		if (mask == null) {
+			detectRow(d, i, y, base, height, 1, width - 1, candidates, deferred);
+			return;
+		}
+		final int ty = y / mask.tileSize;
+		for (int tx = mask.tilesX - 1; tx >= 0; --tx)
+			if (mask.isActive(tx, ty))
+				detectRow(d, i, y, base, height, Math.max(1, tx * mask.tileSize),
+				    Math.min(width - 1, (tx + 1) * mask.tileSize), candidates, deferred);
+	}
+
+	/**
+	 * detect the candidates in row y of difference of gaussian image i
+	 * 
+	 * Row yy of each difference of gaussian image is stored at
+	 * <code>base + yy * width</code>, which allows to pass windows of rows
+	 * rather than whole images.
+	 * 
+	 * @param d
+	 *          difference of gaussian images
+	 * @param i
+	 *          scale index, 1 <= i <= d.length - 2
+	 * @param y
+	 *          row, 1 <= y <= height - 2
+	 * @param base
+	 *          offset of row 0
+	 * @param height
+	 *          height of the difference of gaussian images
+	 * @param x0
+	 *          first column, x0 >= 1
+	 * @param x1
+	 *          last column + 1, x1 <= width - 1
+	 * @param candidates
+	 *          collects the detected candidates
+	 * @param deferred
+	 *          collects the extrema (x, y, i) whose localization needs
+	 *          difference of gaussian images that are null in d, their
+	 *          placeholder in candidates is the same array; null if all images
+	 *          are set
+	 */
+	static void detectRow(final FloatArray2D[] d, final int i, final int y, final int base, final int height,
+	    final int x0, final int x1, final List<double[]> candidates, final List<double[]> deferred) {
+		final int ia = i - 1;
+		final int ib = i + 1;
+		final int width = d[i].width;
+		final int r = base + y * width;
+		final int ra = r - width;
+		final int rb = r + width;
+
+		X: for (int x = x1 - 1; x >= x0; --x) {
+			int ic = i;
+			int iac = ia;
+			int ibc = ib;
+			int yc = y;
+			int rc = r;
+			int rac = ra;
+			int rbc = rb;
+			int xc = x;
+			int xa = xc - 1;
+			int xb = xc + 1;
+			double e111 = d[ic].data[r + xc];
+
+			// check if d(x, y, i) is an extremum
+			// do it pipeline-friendly ;)
+
+			double e000 = d[iac].data[rac + xa];
+			boolean isMax = e000 < e111;
+			boolean isMin = e000 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e100 = d[iac].data[rac + xc];
+			isMax &= e100 < e111;
+			isMin &= e100 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e200 = d[iac].data[rac + xb];
+			isMax &= e200 < e111;
+			isMin &= e200 > e111;
+			if (!(isMax || isMin))
+				continue;
+
+			double e010 = d[iac].data[rc + xa];
+			isMax &= e010 < e111;
+			isMin &= e010 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e110 = d[iac].data[rc + xc];
+			isMax &= e110 < e111;
+			isMin &= e110 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e210 = d[iac].data[rc + xb];
+			isMax &= e210 < e111;
+			isMin &= e210 > e111;
+			if (!(isMax || isMin))
+				continue;
+
+			double e020 = d[iac].data[rbc + xa];
+			isMax &= e020 < e111;
+			isMin &= e020 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e120 = d[iac].data[rbc + xc];
+			isMax &= e120 < e111;
+			isMin &= e120 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e220 = d[iac].data[rbc + xb];
+			isMax &= e220 < e111;
+			isMin &= e220 > e111;
+			if (!(isMax || isMin))
+				continue;
+
+			double e001 = d[ic].data[rac + xa];
+			isMax &= e001 < e111;
+			isMin &= e001 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e101 = d[ic].data[rac + xc];
+			isMax &= e101 < e111;
+			isMin &= e101 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e201 = d[ic].data[rac + xb];
+			isMax &= e201 < e111;
+			isMin &= e201 > e111;
+			if (!(isMax || isMin))
+				continue;
+
+			double e011 = d[ic].data[rc + xa];
+			isMax &= e011 < e111;
+			isMin &= e011 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e211 = d[ic].data[rc + xb];
+			isMax &= e211 < e111;
+			isMin &= e211 > e111;
+			if (!(isMax || isMin))
+				continue;
+
+			double e021 = d[ic].data[rbc + xa];
+			isMax &= e021 < e111;
+			isMin &= e021 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e121 = d[ic].data[rbc + xc];
+			isMax &= e121 < e111;
+			isMin &= e121 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e221 = d[ic].data[rbc + xb];
+			isMax &= e221 < e111;
+			isMin &= e221 > e111;
+			if (!(isMax || isMin))
+				continue;
+
+			double e002 = d[ibc].data[rac + xa];
+			isMax &= e002 < e111;
+			isMin &= e002 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e102 = d[ibc].data[rac + xc];
+			isMax &= e102 < e111;
+			isMin &= e102 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e202 = d[ibc].data[rac + xb];
+			isMax &= e202 < e111;
+			isMin &= e202 > e111;
+			if (!(isMax || isMin))
+				continue;
+
+			double e012 = d[ibc].data[rc + xa];
+			isMax &= e012 < e111;
+			isMin &= e012 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e112 = d[ibc].data[rc + xc];
+			isMax &= e112 < e111;
+			isMin &= e112 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e212 = d[ibc].data[rc + xb];
+			isMax &= e212 < e111;
+			isMin &= e212 > e111;
+			if (!(isMax || isMin))
+				continue;
+
+			double e022 = d[ibc].data[rbc + xa];
+			isMax &= e022 < e111;
+			isMin &= e022 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e122 = d[ibc].data[rbc + xc];
+			isMax &= e122 < e111;
+			isMin &= e122 > e111;
+			if (!(isMax || isMin))
+				continue;
+			double e222 = d[ibc].data[rbc + xb];
+			isMax &= e222 < e111;
+			isMin &= e222 > e111;
+			if (!(isMax || isMin))
+				continue;
+
+			// so it is an extremum, try to localize it with subpixel
+			// accuracy, if it has to be moved for more than 0.5 in at
+			// least one direction, try it again there but maximally 5
+			// times
+
+			boolean isLocalized = false;
+			boolean isLocalizable = true;
+
+			double dx;
+			double dy;
+			double di;
+
+			double dxx;
+			double dyy;
+			double dii;
+
+			double dxy;
+			double dxi;
+			double dyi;
+
+			double ox;
+			double oy;
+			double oi;
+
+			double od = Double.MAX_VALUE; // offset square distance
+
+			double fx = 0;
+			double fy = 0;
+			double fi = 0;
+
+			int t = 5; // maximal number of re-localizations
+			do {
+				--t;
+
+				// derive at (x, y, i) by center of difference
+				dx = (e211 - e011) / 2.0f;
+				dy = (e121 - e101) / 2.0f;
+				di = (e112 - e110) / 2.0f;
+
+				// create hessian at (x, y, i) by laplace
+				final double e111_2 = 2.0f * e111;
+				dxx = e011 - e111_2 + e211;
+				dyy = e101 - e111_2 + e121;
+				dii = e110 - e111_2 + e112;
+
+				dxy = (e221 - e021 - e201 + e001) / 4.0f;
+				dxi = (e212 - e012 - e210 + e010) / 4.0f;
+				dyi = (e122 - e102 - e120 + e100) / 4.0f;
+
+				// invert hessian
+				final double det = Matrix3x3.det(dxx, dxy, dxi, dxy, dyy, dyi, dxi, dyi, dii);
+				if (det == 0)
+					continue X;
+
+				final double det1 = 1.0 / det;
+
+				final double hixx = (dyy * dii - dyi * dyi) * det1;
+				final double hixy = (dxi * dyi - dxy * dii) * det1;
+				final double hixi = (dxy * dyi - dxi * dyy) * det1;
+				final double hiyy = (dxx * dii - dxi * dxi) * det1;
+				final double hiyi = (dxi * dxy - dxx * dyi) * det1;
+				final double hiii = (dxx * dyy - dxy * dxy) * det1;
+
+				// localize
+				ox = -hixx * dx - hixy * dy - hixi * di;
+				oy = -hixy * dx - hiyy * dy - hiyi * di;
+				oi = -hixi * dx - hiyi * dy - hiii * di;
+
+				final double odc = ox * ox + oy * oy + oi * oi;
+
+				if (odc < 2.0f) {
+					if ((Math.abs(ox) > 0.5 || Math.abs(oy) > 0.5 || Math.abs(oi) > 0.5) && odc < od) {
+						od = odc;
+
+						xc = (int) Math.round(xc + ox);
+						yc = (int) Math.round(yc + oy);
+						ic = (int) Math.round(ic + oi);
+
+						if (xc < 1 || yc < 1 || ic < 1 || xc > width - 2 || yc > height - 2 || ic > d.length - 2)
 							isLocalizable = false;
-					} while (!isLocalized && isLocalizable && t >= 0);
-					// reject detections that could not be localized properly
-
-					if (!isLocalized) {
-						// System.err.println( "Localization failed (x: " + xc + ", y: " +
-						// yc + ", i: " + ic + ") => (ox: " + ox + ", oy: " + oy + ", oi: "
-						// + oi + ")" );
-						// if ( ic < 1 || ic > d.length - 2 )
-						// System.err.println( " Detection outside octave." );
-						continue;
+						else if (d[ic - 1] == null || d[ic + 1] == null) {
+							final double[] placeholder = new double[] { x, y, i };
+							candidates.add(placeholder);
+							deferred.add(placeholder);
+							continue X;
+						} else {
+							xa = xc - 1;
+							xb = xc + 1;
+							rc = base + yc * width;
+							rac = rc - width;
+							rbc = rc + width;
+							iac = ic - 1;
+							ibc = ic + 1;
+
+							e000 = d[iac].data[rac + xa];
+							e100 = d[iac].data[rac + xc];
+							e200 = d[iac].data[rac + xb];
+
+							e010 = d[iac].data[rc + xa];
+							e110 = d[iac].data[rc + xc];
+							e210 = d[iac].data[rc + xb];
+
+							e020 = d[iac].data[rbc + xa];
+							e120 = d[iac].data[rbc + xc];
+							e220 = d[iac].data[rbc + xb];
+
+							e001 = d[ic].data[rac + xa];
+							e101 = d[ic].data[rac + xc];
+							e201 = d[ic].data[rac + xb];
+
+							e011 = d[ic].data[rc + xa];
+							e111 = d[ic].data[rc + xc];
+							e211 = d[ic].data[rc + xb];
+
+							e021 = d[ic].data[rbc + xa];
+							e121 = d[ic].data[rbc + xc];
+							e221 = d[ic].data[rbc + xb];
+
+							e002 = d[ibc].data[rac + xa];
+							e102 = d[ibc].data[rac + xc];
+							e202 = d[ibc].data[rac + xb];
+
+							e012 = d[ibc].data[rc + xa];
+							e112 = d[ibc].data[rc + xc];
+							e212 = d[ibc].data[rc + xb];
+
+							e022 = d[ibc].data[rbc + xa];
+							e122 = d[ibc].data[rbc + xc];
+							e222 = d[ibc].data[rbc + xb];
+						}
+					} else {
+						fx = xc + ox;
+						fy = yc + oy;
+						fi = ic + oi;
+
+						if (fx < 0 || fy < 0 || fi < 0 || fx > width - 1 || fy > height - 1 || fi > d.length - 1)
+							isLocalizable = false;
+						else
+							isLocalized = true;
 					}
+				} else
+					isLocalizable = false;
+			} while (!isLocalized && isLocalizable && t >= 0);
+			// reject detections that could not be localized properly
+
+			if (!isLocalized) {
+				// System.err.println( "Localization failed (x: " + xc + ", y: " +
+				// yc + ", i: " + ic + ") => (ox: " + ox + ", oy: " + oy + ", oi: "
+				// + oi + ")" );
+				// if ( ic < 1 || ic > d.length - 2 )
+				// System.err.println( " Detection outside octave." );
+				continue;
+			}
 
-					// reject detections with very low contrast
+			// reject detections with very low contrast
 
-					if (Math.abs(e111 + 0.5f * (dx * ox + dy * oy + di * oi)) < MIN_CONTRAST)
-						continue;
+			if (Math.abs(e111 + 0.5f * (dx * ox + dy * oy + di * oi)) < MIN_CONTRAST)
+				continue;
 
-					// reject edge responses
+			// reject edge responses
 
-					final double det = dxx * dyy - dxy * dxy;
-					final double trace = dxx + dyy;
-					if (trace * trace / det > MAX_CURVATURE_RATIO)
-						continue;
+			final double det = dxx * dyy - dxy * dxy;
+			final double trace = dxx + dyy;
+			if (trace * trace / det > MAX_CURVATURE_RATIO)
+				continue;
 
-					candidates.addElement(new double[] { fx, fy, fi });
-					// candidates.addElement( new double[]{ x, y, i } );
-				}
-			}
+			candidates.add(new double[] { fx, fy, fi });
+			// candidates.addElement( new double[]{ x, y, i } );
 		}
 	}
-}
\ No newline at end of file
+}
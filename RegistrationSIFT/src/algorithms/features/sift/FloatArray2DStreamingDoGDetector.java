@@ -0,0 +1,138 @@
+package algorithms.features.sift;
+
+import java.util.Vector;
+
+import algorithms.utils.Util;
+
+/**
+ * Difference Of Gaussian detector that streams the rows of a scale octave
+ * through convolution, difference of gaussian and extremum detection instead
+ * of materializing all gaussian and difference of gaussian images.
+ * 
+ * For each scale, only the horizontally convolved rows covered by the
+ * vertical kernel are kept in a ring buffer. For each difference of gaussian
+ * image, a window of rows large enough for the 3x3x3 extremum test and the
+ * subpixel localization is kept. Memory per octave is thus
+ * O(width&times;kernel&times;scales) instead of
+ * O(width&times;height&times;scales). Candidates are the same as those of
+ * {@link FloatArray2DScaleOctaveDoGDetector}, in a different order.
+ * 
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class FloatArray2DStreamingDoGDetector {
+	/**
+	 * Rows around a tested row required by the extremum test and the up to 6
+	 * localization steps, each moving the candidate by at most one row.
+	 */
+	final static private int R = 7;
+
+	/**
+	 * number of rows in the window of each difference of gaussian image
+	 */
+	final static private int W = 2 * R + 1;
+
+	/**
+	 * detected candidates as float triples 0=>x, 1=>y, 2=>scale index
+	 */
+	private Vector<double[]> candidates;
+
+	public Vector<double[]> getCandidates() {
+		return candidates;
+	}
+
+	public void run(final FloatArray2DScaleOctave octave) {
+		candidates = new Vector<double[]>();
+
+		final FloatArray2D l0 = octave.getL(0);
+		final float[][] kernels = octave.getKernelDiff();
+		final float kMin1Inv = octave.getKMin1Inv();
+		final int width = l0.width;
+		final int height = l0.height;
+		final int n = kernels.length;
+		final TileMask mask = octave.getDetectionMask();
+
+		// ring buffers of horizontally convolved rows per scale
+		final float[][][] hRows = new float[n][][];
+		final int[] nextHRow = new int[n];
+		for (int i = 1; i < n; ++i)
+			hRows[i] = new float[kernels[i].length][width];
+		int maxLength = 0;
+		for (int i = 1; i < n; ++i)
+			maxLength = Math.max(maxLength, kernels[i].length);
+		final float[] row = new float[width + maxLength];
+
+		// current row of each gaussian image but the first
+		final float[][] lRows = new float[n][];
+		for (int i = 1; i < n; ++i)
+			lRows[i] = new float[width];
+
+		// windows of difference of gaussian rows, each row is stored twice, at
+		// y % W and y % W + W, so that any W consecutive rows are contiguous
+		final FloatArray2D[] d = new FloatArray2D[n - 1];
+		for (int i = 0; i < d.length; ++i)
+			d[i] = new FloatArray2D(width, 2 * W);
+
+		final int windowHeight = Math.min(W, height);
+		int next = 1;
+		for (int y = 0; y < height; ++y) {
+			final int r0 = y * width;
+			for (int i = 1; i < n; ++i) {
+				final float[] k = kernels[i];
+				final int kl = k.length / 2;
+				final float[][] h = hRows[i];
+
+				// horizontally convolve all rows needed by the vertical kernel
+				for (final int last = Math.min(height - 1, y + kl); nextHRow[i] <= last; ++nextHRow[i]) {
+					System.arraycopy(l0.data, nextHRow[i] * width, row, kl, width);
+					Filter.mirrorBorders(row, width, kl);
+					Filter.convolveRow(row, width, k, h[nextHRow[i] % k.length], 0);
+				}
+
+				// vertically convolve, folded like Filter.convolveVertical
+				final float[] l = lRows[i];
+				final float[] hc = h[y % k.length];
+				final float c = k[kl];
+				for (int x = 0; x < width; ++x)
+					l[x] = c * hc[x];
+				for (int yk = 0; yk < kl; ++yk) {
+					final float[] ha = h[Util.pingPong(y + yk - kl, height) % k.length];
+					final float[] hb = h[Util.pingPong(y + kl - yk, height) % k.length];
+					final float v = k[yk];
+					for (int x = 0; x < width; ++x)
+						l[x] += v * (ha[x] + hb[x]);
+				}
+			}
+
+			// difference of gaussian rows
+			final int rd1 = (y % W) * width;
+			final int rd2 = rd1 + W * width;
+			for (int i = 0; i < d.length; ++i) {
+				final float[] la = i == 0 ? l0.data : lRows[i];
+				final int ra = i == 0 ? r0 : 0;
+				final float[] lb = lRows[i + 1];
+				final float[] dd = d[i].data;
+				for (int x = 0; x < width; ++x) {
+					final float v = (lb[x] - la[ra + x]) * kMin1Inv;
+					dd[rd1 + x] = v;
+					dd[rd2 + x] = v;
+				}
+			}
+
+			// detect in all rows whose window is complete
+			for (; next <= height - 2 && first(next, height) + windowHeight - 1 <= y; ++next) {
+				final int first = first(next, height);
+				final int base = (first % W - first) * width;
+				for (int i = 1; i <= d.length - 2; ++i)
+					FloatArray2DScaleOctaveDoGDetector.detectRow(d, i, next, base, height, mask, candidates, null);
+			}
+		}
+	}
+
+	/**
+	 * @return the first row of the window around row yc, windows are shifted
+	 *         inside the image at its borders
+	 */
+	final static private int first(final int yc, final int height) {
+		return Math.max(0, Math.min(yc - R, height - W));
+	}
+}
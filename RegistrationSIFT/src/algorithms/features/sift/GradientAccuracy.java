@@ -0,0 +1,23 @@
+package algorithms.features.sift;
+
+/**
+ * Accuracy of the gradient orientations computed by
+ * {@link Filter#atan2(float, float, GradientAccuracy)}.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public enum GradientAccuracy {
+	/**
+	 * {@link Math#atan2(double, double)}
+	 */
+	EXACT,
+	/**
+	 * 8 term polynomial, the error is within the rounding of the float result
+	 * (below 2.5e-7 rad)
+	 */
+	FLOAT,
+	/**
+	 * 5 term polynomial, the error is below 1.2e-5 rad
+	 */
+	FAST
+}
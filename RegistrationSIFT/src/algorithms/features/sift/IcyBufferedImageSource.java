@@ -0,0 +1,64 @@
+package algorithms.features.sift;
+
+import icy.image.IcyBufferedImage;
+
+/**
+ * {@link ImageSource} reading the weighted sum of the channels of an
+ * {@link IcyBufferedImage} directly from its native data arrays. Rows are
+ * converted on demand, so reading a region only converts that region.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class IcyBufferedImageSource implements ImageSource {
+	final private int width;
+	final private int height;
+	final private boolean signed;
+	final private Object[] channels;
+	final private float[] weights;
+
+	/**
+	 * @param im
+	 *          source image
+	 * @param weights
+	 *          one weight per channel, channels with weight 0 are not read
+	 */
+	public IcyBufferedImageSource(final IcyBufferedImage im, final float[] weights) {
+		width = im.getWidth();
+		height = im.getHeight();
+		signed = im.getDataType_().isSigned();
+
+		final int sizeC = Math.min(weights.length, im.getSizeC());
+		int n = 0;
+		for (int c = 0; c < sizeC; ++c)
+			if (weights[c] != 0)
+				++n;
+		channels = new Object[n];
+		this.weights = new float[n];
+		n = 0;
+		for (int c = 0; c < sizeC; ++c) {
+			if (weights[c] != 0) {
+				channels[n] = im.getDataXY(c);
+				this.weights[n++] = weights[c];
+			}
+		}
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void readRow(final int x, final int y, final int w, final float[] dst, final int o) {
+		if (channels.length == 0)
+			for (int i = o; i < o + w; ++i)
+				dst[i] = 0;
+		for (int i = 0; i < channels.length; ++i)
+			ImageArrayConverter.readRows(channels[i], signed, weights[i], i > 0, y * width + x, dst, o, w);
+	}
+}
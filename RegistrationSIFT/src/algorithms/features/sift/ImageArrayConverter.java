@@ -1,57 +1,452 @@
 package algorithms.features.sift;
 
 /**
- * 
+ *
  * @author Hoai Thu NGUYEN
  * @date Jan-16
  */
 import icy.sequence.Sequence;
 import icy.type.DataType;
 import icy.image.IcyBufferedImage;
+import icy.roi.BooleanMask2D;
+import icy.roi.ROI2D;
 
+import java.awt.Rectangle;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
-import org.apache.commons.lang.ArrayUtils;
+import plugins.kernel.roi.roi2d.ROI2DPoint;
+
+import algorithms.utils.Parallel;
+import algorithms.utils.ScratchPool;
 
 final public class ImageArrayConverter {
+	/**
+	 * Luminance weights for 3 channel (RGB) images.
+	 */
+	final static public float[] RGB_LUMINANCE = { 0.2989f, 0.5870f, 0.1140f };
+
+	/**
+	 * Convert the first image of a sequence to gray values. 3 channel images are
+	 * mixed by {@link #RGB_LUMINANCE}, other multi channel images by the mean of
+	 * all channels.
+	 */
 	final static public FloatArray2D SequenceToFloatArray2D(final Sequence seq) {
-		int w = seq.getSizeX();
-		int h = seq.getSizeY();
-		IcyBufferedImage im = seq.getFirstImage();
-
-		// Convert image to gray
-		float[] data = new float[w * h];
-		for (int x = 0; x < w; ++x) {
-			for (int y = 0; y < h; ++y) {
-				final int rgb = im.getRGB(x, y);
-				final int b = rgb & 0xff;
-				final int g = (rgb >> 8) & 0xff;
-				final int r = (rgb >> 16) & 0xff;
-				data[x + y * w] = 0.2989f * r + 0.5870f * g + 0.1140f * b;
+		final IcyBufferedImage im = seq.getFirstImage();
+		return IcyBufferedImageToFloatArray2D(im, defaultChannelWeights(im.getSizeC()), null);
+	}
+
+	/**
+	 * Convert a single channel of the plane (t, z) of a sequence to float
+	 * values, keeping the native dynamic range of the data.
+	 */
+	final static public FloatArray2D SequenceToFloatArray2D(final Sequence seq, final int t, final int z, final int c) {
+		return IcyBufferedImageToFloatArray2D(seq.getImage(t, z), channelWeights(seq.getSizeC(), c), null);
+	}
+
+	/**
+	 * Convert the plane (t, z) of a sequence to float values as weighted sum of
+	 * its channels.
+	 *
+	 * @param weights
+	 *          one weight per channel, channels with weight 0 are not read
+	 */
+	final static public FloatArray2D SequenceToFloatArray2D(final Sequence seq, final int t, final int z,
+	    final float[] weights) {
+		return IcyBufferedImageToFloatArray2D(seq.getImage(t, z), weights, null);
+	}
+
+	/**
+	 * Convert an image to float values as weighted sum of its channels reading
+	 * the native typed data arrays row by row. Rows are distributed over the
+	 * available cores.
+	 *
+	 * @param im
+	 *          source image
+	 * @param weights
+	 *          one weight per channel, channels with weight 0 are not read
+	 * @param dst
+	 *          target, allocated if null or not matching the image size
+	 *
+	 * @return the filled target
+	 */
+	final static public FloatArray2D IcyBufferedImageToFloatArray2D(final IcyBufferedImage im, final float[] weights,
+	    FloatArray2D dst) {
+		final int w = im.getWidth();
+		final int h = im.getHeight();
+		if (dst == null || dst.width != w || dst.height != h)
+			dst = new FloatArray2D(w, h);
+
+		final int sizeC = Math.min(weights.length, im.getSizeC());
+		int n = 0;
+		for (int c = 0; c < sizeC; ++c)
+			if (weights[c] != 0)
+				++n;
+		final Object[] channels = new Object[n];
+		final float[] channelWeights = new float[n];
+		n = 0;
+		for (int c = 0; c < sizeC; ++c) {
+			if (weights[c] != 0) {
+				channels[n] = im.getDataXY(c);
+				channelWeights[n++] = weights[c];
+			}
+		}
+		final boolean signed = im.getDataType_().isSigned();
+		final float[] data = dst.data;
+
+		Parallel.forRows(w, h, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final int o = start * w;
+				final int l = (end - start) * w;
+				if (channels.length == 0)
+					Arrays.fill(data, o, o + l, 0);
+				for (int i = 0; i < channels.length; ++i)
+					readRows(channels[i], signed, channelWeights[i], i > 0, o, data, o, l);
+			}
+		});
+
+		return dst;
+	}
+
+	/**
+	 * Create the union of the masks of the 2d area ROIs of a sequence, point
+	 * ROIs are ignored.
+	 *
+	 * @return the mask or null if the sequence has no area ROI
+	 */
+	final static public BooleanMask2D SequenceROIsToBooleanMask(final Sequence seq) {
+		final List<ROI2D> rois = seq.getROI2Ds();
+		final BooleanMask2D[] masks = new BooleanMask2D[rois.size()];
+		Rectangle bounds = null;
+		for (int i = 0; i < masks.length; ++i) {
+			if (rois.get(i) instanceof ROI2DPoint)
+				continue;
+			masks[i] = rois.get(i).getBooleanMask(true);
+			if (masks[i].bounds.isEmpty())
+				masks[i] = null;
+			else
+				bounds = bounds == null ? new Rectangle(masks[i].bounds) : bounds.union(masks[i].bounds);
+		}
+		if (bounds == null)
+			return null;
+
+		final boolean[] mask = new boolean[bounds.width * bounds.height];
+		for (final BooleanMask2D m : masks) {
+			if (m == null)
+				continue;
+			for (int y = 0; y < m.bounds.height; ++y) {
+				final int r = (m.bounds.y + y - bounds.y) * bounds.width + m.bounds.x - bounds.x;
+				for (int x = 0; x < m.bounds.width; ++x)
+					mask[r + x] |= m.mask[y * m.bounds.width + x];
 			}
 		}
-		FloatArray2D fa = new FloatArray2D(data, w, h);
-		return fa;
+		return new BooleanMask2D(bounds, mask);
+	}
+
+	/**
+	 * @return weights selecting channel c only
+	 */
+	final static public float[] channelWeights(final int sizeC, final int c) {
+		if (c < 0 || c >= sizeC)
+			throw new IllegalArgumentException("Channel " + c + " out of range [0, " + sizeC + ")");
+		final float[] weights = new float[sizeC];
+		weights[c] = 1;
+		return weights;
+	}
+
+	/**
+	 * @return {@link #RGB_LUMINANCE} for 3 channel images, the mean of all
+	 *         channels otherwise
+	 */
+	final static public float[] defaultChannelWeights(final int sizeC) {
+		if (sizeC == 3)
+			return RGB_LUMINANCE.clone();
+		final float[] weights = new float[sizeC];
+		Arrays.fill(weights, 1.0f / sizeC);
+		return weights;
+	}
+
+	/**
+	 * Write (or add) <code>weight</code> times the <code>l</code> values of a
+	 * native data array starting at <code>so</code> into <code>dst</code>
+	 * starting at <code>o</code>.
+	 */
+	final static void readRows(final Object src, final boolean signed, final float weight, final boolean accumulate,
+	    final int so, final float[] dst, final int o, final int l) {
+		final int e = o + l;
+		final int s = so - o;
+		if (src instanceof byte[]) {
+			final byte[] a = (byte[]) src;
+			final int mask = signed ? -1 : 0xff;
+			if (accumulate)
+				for (int i = o; i < e; ++i)
+					dst[i] += weight * (a[s + i] & mask);
+			else
+				for (int i = o; i < e; ++i)
+					dst[i] = weight * (a[s + i] & mask);
+		} else if (src instanceof short[]) {
+			final short[] a = (short[]) src;
+			final int mask = signed ? -1 : 0xffff;
+			if (accumulate)
+				for (int i = o; i < e; ++i)
+					dst[i] += weight * (a[s + i] & mask);
+			else
+				for (int i = o; i < e; ++i)
+					dst[i] = weight * (a[s + i] & mask);
+		} else if (src instanceof int[]) {
+			final int[] a = (int[]) src;
+			final long mask = signed ? -1L : 0xffffffffL;
+			if (accumulate)
+				for (int i = o; i < e; ++i)
+					dst[i] += weight * (a[s + i] & mask);
+			else
+				for (int i = o; i < e; ++i)
+					dst[i] = weight * (a[s + i] & mask);
+		} else if (src instanceof float[]) {
+			final float[] a = (float[]) src;
+			if (accumulate)
+				for (int i = o; i < e; ++i)
+					dst[i] += weight * a[s + i];
+			else
+				for (int i = o; i < e; ++i)
+					dst[i] = weight * a[s + i];
+		} else if (src instanceof double[]) {
+			final double[] a = (double[]) src;
+			if (accumulate)
+				for (int i = o; i < e; ++i)
+					dst[i] += (float) (weight * a[s + i]);
+			else
+				for (int i = o; i < e; ++i)
+					dst[i] = (float) (weight * a[s + i]);
+		} else
+			throw new IllegalArgumentException("Unsupported image data type " + src.getClass().getSimpleName());
 	}
 
+	/**
+	 * Convert the first image of a sequence to gray values (see
+	 * {@link #SequenceToFloatArray2D(Sequence)}) in the range [0.0f, ..., 1.0f].
+	 */
 	final static public FloatArray2D SequenceToFloatArray2DNormalize(final Sequence seq) {
-		// Normalize data in a sequence to a floatarray2D with range from 0 to 1
-		FloatArray2D fa = SequenceToFloatArray2D(seq);
-		FloatArray2D fa_normalized = fa.clone();
+		final IcyBufferedImage im = seq.getFirstImage();
+		return IcyBufferedImageToFloatArray2DNormalize(im, defaultChannelWeights(im.getSizeC()), null, null);
+	}
 
-		List<Float> list = Arrays.asList(ArrayUtils.toObject(fa.data));
-		float min = Collections.min(list);
-		float max = Collections.max(list);
+	/**
+	 * Convert a single channel of the plane (t, z) of a sequence to float values
+	 * in the range [0.0f, ..., 1.0f].
+	 */
+	final static public FloatArray2D SequenceToFloatArray2DNormalize(final Sequence seq, final int t, final int z,
+	    final int c) {
+		return IcyBufferedImageToFloatArray2DNormalize(seq.getImage(t, z), channelWeights(seq.getSizeC(), c), null,
+		    null);
+	}
+
+	/**
+	 * Convert an image to float values in the range [0.0f, ..., 1.0f] as
+	 * weighted sum of its channels.
+	 *
+	 * The value range is estimated by primitive parallel reductions and the
+	 * normalization is applied in place. Single 8 or 16 bit channels are mapped
+	 * through a lookup table in one pass. If a kernel is passed, the normalized
+	 * image is convolved with it in both directions, normalizing each row while
+	 * it is convolved horizontally.
+	 *
+	 * @param im
+	 *          source image
+	 * @param weights
+	 *          one weight per channel, channels with weight 0 are not read
+	 * @param kernel
+	 *          normalized separable smoothing kernel or null
+	 * @param dst
+	 *          target, allocated if null or not matching the image size
+	 *
+	 * @return the filled target
+	 */
+	final static public FloatArray2D IcyBufferedImageToFloatArray2DNormalize(final IcyBufferedImage im,
+	    final float[] weights, final float[] kernel, FloatArray2D dst) {
+		final int w = im.getWidth();
+		final int h = im.getHeight();
+		if (dst == null || dst.width != w || dst.height != h)
+			dst = new FloatArray2D(w, h);
 
-		float scale = (float) (1.0 / (max - min));
+		final boolean signed = im.getDataType_().isSigned();
+		final int c = singleChannel(weights, im.getSizeC());
+		final Object channel = c < 0 ? null : im.getDataXY(c);
 
-		for (int i = 0; i < fa_normalized.data.length; ++i) {
-			fa_normalized.data[i] = (fa_normalized.data[i] - min) * scale;
+		final float[] lut;
+		final float min;
+		final float scale;
+		if (channel instanceof byte[] || channel instanceof short[]) {
+			lut = createNormalizationLut(channel, signed, weights[c]);
+			min = 0;
+			scale = 1;
+			if (kernel == null) {
+				applyLut(channel, lut, dst.data);
+				return dst;
+			}
+		} else {
+			lut = null;
+			IcyBufferedImageToFloatArray2D(im, weights, dst);
+			final float[] range = range(dst.data);
+			min = range[0];
+			scale = range[1] > range[0] ? 1.0f / (range[1] - range[0]) : 0;
+			if (kernel == null) {
+				scale(dst.data, min, scale);
+				return dst;
+			}
+		}
+
+		// normalize and convolve each row, then convolve the columns
+		final FloatArray2D temp = new FloatArray2D(ScratchPool.acquire(w * h), w, h);
+		final float[] src = dst.data;
+		final int l = kernel.length / 2;
+		Parallel.forRows(w, h, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final float[] row = new float[w + 2 * l];
+				for (int r = start * w; r < end * w; r += w) {
+					if (lut == null)
+						for (int x = 0; x < w; ++x)
+							row[l + x] = (src[r + x] - min) * scale;
+					else
+						lookupRow(channel, lut, r, row, l, w);
+					Filter.mirrorBorders(row, w, l);
+					Filter.convolveRow(row, w, kernel, temp.data, r);
+				}
+			}
+		});
+		Filter.convolveVertical(temp, kernel, dst);
+		ScratchPool.release(temp.data);
+
+		return dst;
+	}
+
+	/**
+	 * @return the index of the only channel with a non zero weight, -1 if
+	 *         channels are mixed
+	 */
+	final static private int singleChannel(final float[] weights, final int sizeC) {
+		int c = -1;
+		for (int i = Math.min(weights.length, sizeC) - 1; i >= 0; --i) {
+			if (weights[i] != 0) {
+				if (c >= 0)
+					return -1;
+				c = i;
+			}
 		}
+		return c;
+	}
 
-		return fa_normalized;
+	/**
+	 * Create a table mapping each raw value (as unsigned bit pattern) of an 8 or
+	 * 16 bit channel to its normalized weighted value.
+	 */
+	final static private float[] createNormalizationLut(final Object channel, final boolean signed,
+	    final float weight) {
+		final boolean isByte = channel instanceof byte[];
+		final int mask = isByte ? 0xff : 0xffff;
+		final int length = isByte ? ((byte[]) channel).length : ((short[]) channel).length;
+
+		// find the range of raw bit patterns in use
+		final boolean[] used = new boolean[mask + 1];
+		Parallel.forRange(0, length, Parallel.MIN_PIXELS_PER_TASK, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final boolean[] u = new boolean[mask + 1];
+				if (isByte) {
+					final byte[] a = (byte[]) channel;
+					for (int i = start; i < end; ++i)
+						u[a[i] & mask] = true;
+				} else {
+					final short[] a = (short[]) channel;
+					for (int i = start; i < end; ++i)
+						u[a[i] & mask] = true;
+				}
+				synchronized (used) {
+					for (int i = 0; i < u.length; ++i)
+						used[i] |= u[i];
+				}
+			}
+		});
+
+		final float[] lut = new float[mask + 1];
+		float min = Float.MAX_VALUE;
+		float max = -Float.MAX_VALUE;
+		for (int i = 0; i < lut.length; ++i) {
+			final int v = signed ? (isByte ? (byte) i : (short) i) : i;
+			lut[i] = weight * v;
+			if (used[i]) {
+				min = Math.min(min, lut[i]);
+				max = Math.max(max, lut[i]);
+			}
+		}
+		final float scale = max > min ? 1.0f / (max - min) : 0;
+		for (int i = 0; i < lut.length; ++i)
+			lut[i] = (lut[i] - min) * scale;
+
+		return lut;
+	}
+
+	final static private void applyLut(final Object channel, final float[] lut, final float[] dst) {
+		Parallel.forRange(0, dst.length, Parallel.MIN_PIXELS_PER_TASK, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				lookupRow(channel, lut, start, dst, start, end - start);
+			}
+		});
+	}
+
+	final static private void lookupRow(final Object channel, final float[] lut, final int o, final float[] dst,
+	    final int d, final int l) {
+		if (channel instanceof byte[]) {
+			final byte[] a = (byte[]) channel;
+			for (int i = 0; i < l; ++i)
+				dst[d + i] = lut[a[o + i] & 0xff];
+		} else {
+			final short[] a = (short[]) channel;
+			for (int i = 0; i < l; ++i)
+				dst[d + i] = lut[a[o + i] & 0xffff];
+		}
+	}
+
+	/**
+	 * @return { min, max } of data
+	 */
+	final static public float[] range(final float[] data) {
+		final float[] range = { Float.MAX_VALUE, -Float.MAX_VALUE };
+		Parallel.forRange(0, data.length, Parallel.MIN_PIXELS_PER_TASK, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				float min = Float.MAX_VALUE;
+				float max = -Float.MAX_VALUE;
+				for (int i = start; i < end; ++i) {
+					final float f = data[i];
+					if (f < min)
+						min = f;
+					if (f > max)
+						max = f;
+				}
+				synchronized (range) {
+					range[0] = Math.min(range[0], min);
+					range[1] = Math.max(range[1], max);
+				}
+			}
+		});
+		return range;
+	}
+
+	/**
+	 * In place map data to (data - min) * scale.
+	 */
+	final static public void scale(final float[] data, final float min, final float scale) {
+		Parallel.forRange(0, data.length, Parallel.MIN_PIXELS_PER_TASK, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; ++i)
+					data[i] = (data[i] - min) * scale;
+			}
+		});
 	}
 
 	final static public Sequence FloatArray2DtoSequence(final FloatArray2D fa) {
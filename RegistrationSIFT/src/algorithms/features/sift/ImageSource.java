@@ -0,0 +1,32 @@
+package algorithms.features.sift;
+
+/**
+ * Row wise random access to the float values of a 2d image that does not
+ * need to be held on the heap as a whole.
+ * 
+ * Implementations must support concurrent reads.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public interface ImageSource {
+	public int getWidth();
+
+	public int getHeight();
+
+	/**
+	 * Read <code>w</code> values of row <code>y</code> starting at column
+	 * <code>x</code>.
+	 *
+	 * @param x
+	 *          first column
+	 * @param y
+	 *          row
+	 * @param w
+	 *          number of values
+	 * @param dst
+	 *          target array
+	 * @param o
+	 *          offset in dst
+	 */
+	public void readRow(int x, int y, int w, float[] dst, int o);
+}
@@ -0,0 +1,51 @@
+package algorithms.features.sift;
+
+/**
+ * Rectangular view of an {@link ImageSource}. No data is copied.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class ImageSourceRegion implements ImageSource {
+	final private ImageSource source;
+
+	final public int x;
+	final public int y;
+	final private int width;
+	final private int height;
+
+	/**
+	 * @param source
+	 * @param x
+	 *          first column of the region in source
+	 * @param y
+	 *          first row of the region in source
+	 * @param width
+	 * @param height
+	 */
+	public ImageSourceRegion(final ImageSource source, final int x, final int y, final int width, final int height) {
+		if (x < 0 || y < 0 || width < 1 || height < 1 || x + width > source.getWidth()
+		    || y + height > source.getHeight())
+			throw new IllegalArgumentException("Region (" + x + ", " + y + ", " + width + ", " + height
+			    + ") exceeds the source of size " + source.getWidth() + "x" + source.getHeight());
+		this.source = source;
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void readRow(final int x, final int y, final int w, final float[] dst, final int o) {
+		source.readRow(this.x + x, this.y + y, w, dst, o);
+	}
+}
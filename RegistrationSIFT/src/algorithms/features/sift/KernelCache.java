@@ -0,0 +1,132 @@
+package algorithms.features.sift;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of the gaussian kernels, recursive filters and masks
+ * used by {@link FloatArray2DSIFT}, so that extracting features from many
+ * images builds each table only once.
+ *
+ * Kernels are keyed by the exact float value of their sigma, which is
+ * derived from {@link FloatArray2DSIFT.Param} and therefore repeats exactly
+ * between instances, so that a cached table is the one that would have been
+ * built. Each table keeps the {@link #MAX_ENTRIES} most recently used
+ * entries.
+ *
+ * The cache is thread safe. Returned arrays are shared and must not be
+ * modified.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+final public class KernelCache {
+	/**
+	 * Maximal number of entries per table, the least recently used entry is
+	 * dropped beyond.
+	 */
+	final static public int MAX_ENTRIES = 64;
+
+	final static private Map<Integer, float[]> gaussianKernels = lru();
+	final static private Map<Integer, RecursiveGaussian> recursiveGaussians = lru();
+	final static private Map<Integer, float[][]> descriptorMasks = lru();
+
+	private KernelCache() {
+	}
+
+	/**
+	 * @return an access ordered map keeping the {@link #MAX_ENTRIES} most
+	 *         recently used entries
+	 */
+	final static private <K, V> Map<K, V> lru() {
+		return new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+				return size() > MAX_ENTRIES;
+			}
+		};
+	}
+
+	/**
+	 * @param sigma
+	 *
+	 * @return the normalized kernel of
+	 *         {@link Filter#createGaussianKernel(float, boolean)}
+	 */
+	final static public float[] gaussianKernel(final float sigma) {
+		final Integer key = Float.floatToIntBits(sigma);
+		synchronized (gaussianKernels) {
+			float[] kernel = gaussianKernels.get(key);
+			if (kernel == null) {
+				kernel = Filter.createGaussianKernel(sigma, true);
+				gaussianKernels.put(key, kernel);
+			}
+			return kernel;
+		}
+	}
+
+	/**
+	 * @param sigma
+	 *          not smaller than {@link RecursiveGaussian#MIN_SIGMA}
+	 *
+	 * @return the recursive filter of the given sigma
+	 */
+	final static public RecursiveGaussian recursiveGaussian(final float sigma) {
+		final Integer key = Float.floatToIntBits(sigma);
+		synchronized (recursiveGaussians) {
+			RecursiveGaussian filter = recursiveGaussians.get(key);
+			if (filter == null) {
+				filter = new RecursiveGaussian(sigma);
+				recursiveGaussians.put(key, filter);
+			}
+			return filter;
+		}
+	}
+
+	/**
+	 * @param fdSize
+	 *          {@link FloatArray2DSIFT.Param#fdSize}
+	 *
+	 * @return the gaussian weights of the 4 * fdSize samples per row and column
+	 *         of the feature descriptor square
+	 */
+	final static public float[][] descriptorMask(final int fdSize) {
+		synchronized (descriptorMasks) {
+			float[][] mask = descriptorMasks.get(fdSize);
+			if (mask == null) {
+				final int fdWidth = 4 * fdSize;
+				mask = new float[fdWidth][fdWidth];
+				final float two_sq_sigma = fdSize * fdSize * 8;
+				for (int y = fdSize * 2 - 1; y >= 0; --y) {
+					final float fy = (float) y + 0.5f;
+					for (int x = fdSize * 2 - 1; x >= 0; --x) {
+						final float fx = (float) x + 0.5f;
+						final float val = (float) Math.exp(-(fy * fy + fx * fx) / two_sq_sigma);
+						mask[2 * fdSize - 1 - y][2 * fdSize - 1 - x] = val;
+						mask[2 * fdSize + y][2 * fdSize - 1 - x] = val;
+						mask[2 * fdSize - 1 - y][2 * fdSize + x] = val;
+						mask[2 * fdSize + y][2 * fdSize + x] = val;
+					}
+				}
+				descriptorMasks.put(fdSize, mask);
+			}
+			return mask;
+		}
+	}
+
+	/**
+	 * Drop all cached tables.
+	 */
+	final static public void clear() {
+		synchronized (gaussianKernels) {
+			gaussianKernels.clear();
+		}
+		synchronized (recursiveGaussians) {
+			recursiveGaussians.clear();
+		}
+		synchronized (descriptorMasks) {
+			descriptorMasks.clear();
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package algorithms.features.sift;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link ImageSource} reading a raw single plane image file through memory
+ * mapping.
+ * 
+ * The file is mapped in bands of whole rows (each smaller than 2GB) when a row
+ * of the band is read for the first time, and the operating system pages in
+ * only the rows that are actually accessed. Nothing is copied to the heap up
+ * front, so images exceeding the size of a {@link FloatArray2D} can be read.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public class MappedRawImageSource implements ImageSource, Closeable {
+	public enum PixelType {
+		FLOAT32(4), UINT16(2);
+
+		final public int bytes;
+
+		private PixelType(final int bytes) {
+			this.bytes = bytes;
+		}
+	}
+
+	final private int width;
+	final private int height;
+	final private PixelType type;
+	final private ByteOrder order;
+	final private long offset;
+
+	final private RandomAccessFile file;
+	final private FileChannel channel;
+
+	/**
+	 * rows per mapped band
+	 */
+	final private int bandHeight;
+
+	/**
+	 * typed views of the mapped bands, created on demand
+	 */
+	final private AtomicReferenceArray<Buffer> bands;
+
+	/**
+	 * @param file
+	 *          raw image file
+	 * @param width
+	 * @param height
+	 * @param type
+	 *          pixel type
+	 * @param order
+	 *          byte order of the pixels
+	 * @param offset
+	 *          offset of the first pixel in the file in bytes
+	 * 
+	 * @throws IOException
+	 *           if the file cannot be opened or is too small
+	 */
+	public MappedRawImageSource(final File file, final int width, final int height, final PixelType type,
+	    final ByteOrder order, final long offset) throws IOException {
+		this(file, width, height, type, order, offset,
+		    (int) Math.max(1, Math.min(height, Integer.MAX_VALUE / ((long) width * type.bytes))));
+	}
+
+	/**
+	 * @param bandHeight
+	 *          rows per mapped band, each band must be smaller than 2GB
+	 * 
+	 * @see #MappedRawImageSource(File, int, int, PixelType, ByteOrder, long)
+	 */
+	MappedRawImageSource(final File file, final int width, final int height, final PixelType type,
+	    final ByteOrder order, final long offset, final int bandHeight) throws IOException {
+		this.width = width;
+		this.height = height;
+		this.type = type;
+		this.order = order;
+		this.offset = offset;
+		this.bandHeight = bandHeight;
+
+		final long rowBytes = (long) width * type.bytes;
+		bands = new AtomicReferenceArray<Buffer>((height + bandHeight - 1) / bandHeight);
+
+		this.file = new RandomAccessFile(file, "r");
+		channel = this.file.getChannel();
+		if (channel.size() < offset + rowBytes * height) {
+			close();
+			throw new IOException(file + " is too small for a " + width + "x" + height + " " + type + " image");
+		}
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void readRow(final int x, final int y, final int w, final float[] dst, final int o) {
+		final int b = y / bandHeight;
+		final int p = (y - b * bandHeight) * width + x;
+		Buffer band = bands.get(b);
+		if (band == null)
+			band = map(b);
+		if (type == PixelType.FLOAT32) {
+			final FloatBuffer floats = (FloatBuffer) band;
+			for (int i = 0; i < w; ++i)
+				dst[o + i] = floats.get(p + i);
+		} else {
+			final ShortBuffer shorts = (ShortBuffer) band;
+			for (int i = 0; i < w; ++i)
+				dst[o + i] = shorts.get(p + i) & 0xffff;
+		}
+	}
+
+	final synchronized private Buffer map(final int b) {
+		Buffer band = bands.get(b);
+		if (band == null) {
+			final long rowBytes = (long) width * type.bytes;
+			final int rows = Math.min(bandHeight, height - b * bandHeight);
+			final MappedByteBuffer bytes;
+			try {
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, offset + b * bandHeight * rowBytes, rows * rowBytes);
+			} catch (final IOException e) {
+				throw new RuntimeException("Cannot map rows " + b * bandHeight + " to " + (b * bandHeight + rows), e);
+			}
+			bytes.order(order);
+			band = type == PixelType.FLOAT32 ? bytes.asFloatBuffer() : bytes.asShortBuffer();
+			bands.set(b, band);
+		}
+		return band;
+	}
+
+	/**
+	 * Close the file. Mapped bands are released once they are garbage
+	 * collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,68 @@
+package algorithms.features.sift;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import icy.sequence.Sequence;
+
+/**
+ * A single 2d plane (t, z, c) of a {@link Sequence}.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+final public class Plane {
+	/**
+	 * Selects all indices of a dimension in {@link #select(Sequence, int, int, int)}.
+	 */
+	final static public int ALL = -1;
+
+	final public int t;
+	final public int z;
+	final public int c;
+
+	public Plane(final int t, final int z, final int c) {
+		this.t = t;
+		this.z = z;
+		this.c = c;
+	}
+
+	/**
+	 * Select planes of a sequence in (t, z, c) order.
+	 *
+	 * @param seq
+	 * @param t
+	 *          time point or {@link #ALL}
+	 * @param z
+	 *          slice or {@link #ALL}
+	 * @param c
+	 *          channel or {@link #ALL}
+	 *
+	 * @return the selected planes
+	 */
+	final static public List<Plane> select(final Sequence seq, final int t, final int z, final int c) {
+		final List<Plane> planes = new ArrayList<Plane>();
+		for (int ti = t == ALL ? 0 : t; ti < (t == ALL ? seq.getSizeT() : t + 1); ++ti)
+			for (int zi = z == ALL ? 0 : z; zi < (z == ALL ? seq.getSizeZ() : z + 1); ++zi)
+				for (int ci = c == ALL ? 0 : c; ci < (c == ALL ? seq.getSizeC() : c + 1); ++ci)
+					planes.add(new Plane(ti, zi, ci));
+		return planes;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (!(o instanceof Plane))
+			return false;
+		final Plane p = (Plane) o;
+		return t == p.t && z == p.z && c == p.c;
+	}
+
+	@Override
+	public int hashCode() {
+		return (t * 31 + z) * 31 + c;
+	}
+
+	@Override
+	public String toString() {
+		return "(t: " + t + ", z: " + z + ", c: " + c + ")";
+	}
+}
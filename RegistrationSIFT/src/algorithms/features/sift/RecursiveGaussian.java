@@ -0,0 +1,358 @@
+package algorithms.features.sift;
+
+import algorithms.utils.Parallel;
+import algorithms.utils.ScratchPool;
+import algorithms.utils.Util;
+
+/**
+ * Recursive (IIR) approximation of a gaussian blur, with a cost per pixel
+ * independent of sigma.
+ *
+ * Each dimension is filtered by the sum of a causal and an anti-causal fourth
+ * order recursion approximating the gaussian by two damped cosines as
+ * proposed by Deriche \citep{Deriche93}. The recursion coefficients are
+ * derived from the poles and residues of that approximation and normalized to
+ * a unit gain. The borders are mirrored like in
+ * {@link Filter#convolveSeparable} over a margin of {@link #getPadding()}
+ * pixels in which the recursions settle.
+ *
+ * The L1 distance of the impulse response to a sampled gaussian is about
+ * 6e-4 for sigma in [0.7, 8], which is below the truncation error of the 3
+ * sigma kernels of {@link Filter#createGaussianKernel(float, boolean)}.
+ *
+ * For the sigmas {@link FloatArray2DSIFT} blurs with, the differences and
+ * the cascade increments of an initial sigma in [1.2, 2] over 2 to 6 steps,
+ * the blur of an image in [0, 1] differs from the FIR blur of
+ * {@link Filter#convolveSeparable} with those kernels by at most
+ * {@link #TOLERANCE} per pixel and {@link #MEAN_TOLERANCE} on average.
+ *
+ * BibTeX:
+ *
+ * <pre>
+ * &#64;techreport{Deriche93,
+ *   author      = {Rachid Deriche},
+ *   title       = {Recursively implementing the Gaussian and its derivatives},
+ *   institution = {INRIA},
+ *   year        = {1993},
+ *   number      = {RR-1893},
+ * }
+ * </pre>
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+final public class RecursiveGaussian {
+	/**
+	 * Smallest sigma the approximation holds for.
+	 */
+	final static public float MIN_SIGMA = 0.7f;
+
+	/**
+	 * Largest difference per pixel to the FIR blur of an image in [0, 1].
+	 */
+	final static public float TOLERANCE = 5e-3f;
+
+	/**
+	 * Largest mean absolute difference to the FIR blur of an image in [0, 1].
+	 */
+	final static public float MEAN_TOLERANCE = 5e-4f;
+
+	/**
+	 * Number of columns filtered together by the vertical pass.
+	 */
+	final static private int COLUMN_BLOCK = 256;
+
+	/**
+	 * amplitudes, decays and frequencies of the two damped cosines
+	 * (a cos(w x / sigma) + c sin(w x / sigma)) exp(-b x / sigma)
+	 */
+	final static private double[][] DERICHE = { { 1.680, 3.735, 1.783, 0.6318 }, { -0.6803, -0.2598, 1.723, 1.997 } };
+
+	final private float sigma;
+	final private int padding;
+
+	/**
+	 * causal numerator n0..n3, anti-causal numerator m1..m4 and common
+	 * denominator d1..d4 of the recursions
+	 */
+	final private float n0, n1, n2, n3, m1, m2, m3, m4, d1, d2, d3, d4;
+
+	/**
+	 * steady state gain of the causal and the anti-causal recursion, used to
+	 * start them on a constant signal
+	 */
+	final private float causalGain, antiCausalGain;
+
+	/**
+	 * @param sigma
+	 *          standard deviation, not smaller than {@link #MIN_SIGMA}
+	 */
+	public RecursiveGaussian(final float sigma) {
+		if (sigma < MIN_SIGMA)
+			throw new IllegalArgumentException("sigma must be at least " + MIN_SIGMA + ", got " + sigma);
+		this.sigma = sigma;
+		padding = (int) Math.ceil(6 * sigma);
+
+		// poles and residues of the causal part, two complex conjugate pairs
+		final double[][] poles = new double[4][];
+		final double[][] residues = new double[4][];
+		for (int k = 0; k < 2; ++k) {
+			final double r = Math.exp(-DERICHE[k][2] / sigma);
+			final double w = DERICHE[k][3] / sigma;
+			poles[2 * k] = new double[] { r * Math.cos(w), r * Math.sin(w) };
+			poles[2 * k + 1] = new double[] { r * Math.cos(w), -r * Math.sin(w) };
+			residues[2 * k] = new double[] { DERICHE[k][0] / 2, -DERICHE[k][1] / 2 };
+			residues[2 * k + 1] = new double[] { DERICHE[k][0] / 2, DERICHE[k][1] / 2 };
+		}
+
+		// denominator prod(1 - p z^-1), numerator sum(res_k prod_{j != k}(1 - p_j z^-1))
+		double[][] den = { { 1, 0 } };
+		final double[] num = new double[4];
+		for (int k = 0; k < 4; ++k) {
+			den = multiply(den, new double[][] { { 1, 0 }, { -poles[k][0], -poles[k][1] } });
+			double[][] t = { residues[k] };
+			for (int j = 0; j < 4; ++j)
+				if (j != k)
+					t = multiply(t, new double[][] { { 1, 0 }, { -poles[j][0], -poles[j][1] } });
+			for (int i = 0; i < 4; ++i)
+				num[i] += t[i][0];
+		}
+		final double[] d = { den[1][0], den[2][0], den[3][0], den[4][0] };
+
+		// the anti-causal part is the mirrored causal part without its center
+		final double[] m = { num[1] - d[0] * num[0], num[2] - d[1] * num[0], num[3] - d[2] * num[0], -d[3] * num[0] };
+
+		final double sd = 1 + d[0] + d[1] + d[2] + d[3];
+		final double sn = num[0] + num[1] + num[2] + num[3];
+		final double sm = m[0] + m[1] + m[2] + m[3];
+		final double s = (sn + sm) / sd;
+
+		n0 = (float) (num[0] / s);
+		n1 = (float) (num[1] / s);
+		n2 = (float) (num[2] / s);
+		n3 = (float) (num[3] / s);
+		m1 = (float) (m[0] / s);
+		m2 = (float) (m[1] / s);
+		m3 = (float) (m[2] / s);
+		m4 = (float) (m[3] / s);
+		d1 = (float) d[0];
+		d2 = (float) d[1];
+		d3 = (float) d[2];
+		d4 = (float) d[3];
+		causalGain = (float) (sn / s / sd);
+		antiCausalGain = (float) (sm / s / sd);
+	}
+
+	/**
+	 * @return product of two polynomials with complex coefficients {re, im}
+	 */
+	final static private double[][] multiply(final double[][] a, final double[][] b) {
+		final double[][] c = new double[a.length + b.length - 1][2];
+		for (int i = 0; i < a.length; ++i)
+			for (int j = 0; j < b.length; ++j) {
+				c[i + j][0] += a[i][0] * b[j][0] - a[i][1] * b[j][1];
+				c[i + j][1] += a[i][0] * b[j][1] + a[i][1] * b[j][0];
+			}
+		return c;
+	}
+
+	public float getSigma() {
+		return sigma;
+	}
+
+	/**
+	 * @return number of mirrored pixels filtered beyond each border
+	 */
+	public int getPadding() {
+		return padding;
+	}
+
+	/**
+	 * Blur an image into caller supplied buffers, see
+	 * {@link Filter#convolveSeparable(FloatArray2D, float[], float[], FloatArray2D, FloatArray2D)}.
+	 *
+	 * @param input
+	 *          the input image
+	 * @param output
+	 *          target, allocated if null or not matching the input size
+	 * @param temp
+	 *          buffer for the horizontal pass, borrowed from the
+	 *          {@link ScratchPool} if null or not matching the input size
+	 *
+	 * @return the blurred image
+	 */
+	public FloatArray2D blur(final FloatArray2D input, FloatArray2D output, FloatArray2D temp) {
+		if (output == null || output.width != input.width || output.height != input.height)
+			output = new FloatArray2D(input.width, input.height);
+		final boolean pooled = temp == null || temp.width != input.width || temp.height != input.height;
+		if (pooled)
+			temp = new FloatArray2D(ScratchPool.acquire(input.width * input.height), input.width, input.height);
+
+		blurHorizontal(input, temp);
+		blurVertical(temp, output);
+
+		if (pooled)
+			ScratchPool.release(temp.data);
+		return output;
+	}
+
+	/**
+	 * Blur the rows of an image, rows are filtered in parallel.
+	 *
+	 * @param input
+	 *          the input image
+	 * @param output
+	 *          the blurred image, must have the size of input
+	 */
+	public void blurHorizontal(final FloatArray2D input, final FloatArray2D output) {
+		final int width = input.width;
+		final int n = width + 2 * padding;
+
+		Parallel.forRows(width, input.height, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final float[] row = new float[n];
+				final float[] causal = new float[padding + width];
+				for (int r = start * width; r < end * width; r += width) {
+					System.arraycopy(input.data, r, row, padding, width);
+					Filter.mirrorBorders(row, width, padding);
+
+					// causal pass, started in the steady state of the first sample
+					float x1 = row[0], x2 = x1, x3 = x1;
+					float y1 = causalGain * x1, y2 = y1, y3 = y1, y4 = y1;
+					for (int i = 0; i < causal.length; ++i) {
+						final float x0 = row[i];
+						final float y0 = n0 * x0 + n1 * x1 + n2 * x2 + n3 * x3 - d1 * y1 - d2 * y2 - d3 * y3 - d4 * y4;
+						causal[i] = y0;
+						x3 = x2;
+						x2 = x1;
+						x1 = x0;
+						y4 = y3;
+						y3 = y2;
+						y2 = y1;
+						y1 = y0;
+					}
+
+					// anti-causal pass, started in the steady state of the last sample
+					x1 = row[n - 1];
+					x2 = x1;
+					x3 = x1;
+					float x4 = x1;
+					y1 = antiCausalGain * x1;
+					y2 = y1;
+					y3 = y1;
+					y4 = y1;
+					for (int i = n - 1; i >= padding; --i) {
+						final float y0 = m1 * x1 + m2 * x2 + m3 * x3 + m4 * x4 - d1 * y1 - d2 * y2 - d3 * y3 - d4 * y4;
+						if (i < causal.length)
+							output.data[r + i - padding] = causal[i] + y0;
+						x4 = x3;
+						x3 = x2;
+						x2 = x1;
+						x1 = row[i];
+						y4 = y3;
+						y3 = y2;
+						y2 = y1;
+						y1 = y0;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Blur the columns of an image. Bands of columns are filtered in parallel,
+	 * each band in blocks of {@link #COLUMN_BLOCK} columns that are filtered row
+	 * by row with unit stride.
+	 *
+	 * @param input
+	 *          the input image
+	 * @param output
+	 *          the blurred image, must have the size of input
+	 */
+	public void blurVertical(final FloatArray2D input, final FloatArray2D output) {
+		final int width = input.width;
+		final int height = input.height;
+		final int n = height + 2 * padding;
+		final int nc = height + padding;
+		final float[] in = input.data;
+		final float[] out = output.data;
+
+		// row offsets of the padded rows including the mirrored ones
+		final int[] ro = new int[n];
+		for (int i = 0; i < n; ++i)
+			ro[i] = width * Util.pingPong(i - padding, height);
+
+		final int grain = Math.max(1, Parallel.MIN_PIXELS_PER_TASK / Math.max(1, height));
+		Parallel.forRange(0, width, grain, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final int bw = Math.min(COLUMN_BLOCK, end - start);
+				// causal rows of the padded block and ring of the last four anti-causal rows
+				final float[] causal = ScratchPool.acquire(nc * bw);
+				final float[] ring = new float[4 * bw];
+				for (int x0 = start; x0 < end; x0 += bw) {
+					final int m = Math.min(end, x0 + bw) - x0;
+
+					// causal pass, rows before the first one are in its steady state
+					for (int i = 0; i < nc; ++i) {
+						final int r = i * bw;
+						final int ri0 = ro[i] + x0;
+						if (i < 4) {
+							final int rf = ro[0] + x0;
+							for (int x = 0; x < m; ++x) {
+								final float steady = causalGain * in[rf + x];
+								causal[r + x] = n0 * in[ri0 + x] + n1 * in[ro[Math.max(0, i - 1)] + x0 + x]
+								    + n2 * in[ro[Math.max(0, i - 2)] + x0 + x] + n3 * in[ro[Math.max(0, i - 3)] + x0 + x]
+								    - d1 * (i > 0 ? causal[r - bw + x] : steady) - d2 * (i > 1 ? causal[r - 2 * bw + x] : steady)
+								    - d3 * (i > 2 ? causal[r - 3 * bw + x] : steady) - d4 * steady;
+							}
+						} else {
+							final int ri1 = ro[i - 1] + x0;
+							final int ri2 = ro[i - 2] + x0;
+							final int ri3 = ro[i - 3] + x0;
+							for (int x = 0; x < m; ++x)
+								causal[r + x] = n0 * in[ri0 + x] + n1 * in[ri1 + x] + n2 * in[ri2 + x] + n3 * in[ri3 + x]
+								    - d1 * causal[r - bw + x] - d2 * causal[r - 2 * bw + x] - d3 * causal[r - 3 * bw + x]
+								    - d4 * causal[r - 4 * bw + x];
+						}
+					}
+
+					// anti-causal pass, rows after the last one are in its steady state,
+					// summed with the causal pass into the output
+					for (int i = n - 1; i >= padding; --i) {
+						final int s0 = (i & 3) * bw;
+						final int s1 = ((i + 1) & 3) * bw;
+						final int s2 = ((i + 2) & 3) * bw;
+						final int s3 = ((i + 3) & 3) * bw;
+						final int ro0 = i < nc ? (i - padding) * width + x0 : -1;
+						final int rc = i * bw;
+						if (i > n - 5) {
+							final int rl = ro[n - 1] + x0;
+							for (int x = 0; x < m; ++x) {
+								final float steady = antiCausalGain * in[rl + x];
+								final float y0 = m1 * in[ro[Math.min(n - 1, i + 1)] + x0 + x] + m2 * in[ro[Math.min(n - 1, i + 2)] + x0 + x]
+								    + m3 * in[ro[Math.min(n - 1, i + 3)] + x0 + x] + m4 * in[rl + x]
+								    - d1 * (i + 1 < n ? ring[s1 + x] : steady) - d2 * (i + 2 < n ? ring[s2 + x] : steady)
+								    - d3 * (i + 3 < n ? ring[s3 + x] : steady) - d4 * steady;
+								ring[s0 + x] = y0;
+							}
+						} else {
+							final int ri1 = ro[i + 1] + x0;
+							final int ri2 = ro[i + 2] + x0;
+							final int ri3 = ro[i + 3] + x0;
+							final int ri4 = ro[i + 4] + x0;
+							for (int x = 0; x < m; ++x)
+								// slot s0 still holds row i + 4
+								ring[s0 + x] = m1 * in[ri1 + x] + m2 * in[ri2 + x] + m3 * in[ri3 + x] + m4 * in[ri4 + x]
+								    - d1 * ring[s1 + x] - d2 * ring[s2 + x] - d3 * ring[s3 + x] - d4 * ring[s0 + x];
+						}
+						if (ro0 >= 0)
+							for (int x = 0; x < m; ++x)
+								out[ro0 + x] = causal[rc + x] + ring[s0 + x];
+					}
+				}
+				ScratchPool.release(causal);
+			}
+		});
+	}
+}
@@ -1,9 +1,17 @@
 package algorithms.features.sift;
 
+import java.awt.Rectangle;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import algorithms.utils.Parallel;
+
+import icy.image.IcyBufferedImage;
+import icy.roi.BooleanMask2D;
 import icy.sequence.Sequence;
-import icy.sequence.SequenceUtil;
 
 /**
  * Scale Invariant Feature Transform Based on the implementation of Stephan
@@ -24,14 +32,38 @@ public class SIFT extends FeatureTransform<FloatArray2DSIFT> {
 	}
 
 	/**
-	 * Extract SIFT features from a Sequence
+	 * normalized gray plane, reused between calls
+	 */
+	private FloatArray2D plane = null;
+
+	/**
+	 * first image of the scale space, reused between calls
+	 */
+	private FloatArray2D base = null;
+
+	/**
+	 * plane reduced to the maximal octave size, reused between calls
+	 */
+	private FloatArray2D scaled = null;
+
+	@Override
+	public SIFT copy() {
+		return new SIFT(t.copy());
+	}
+
+	/**
+	 * Extract SIFT features from an image
 	 * 
-	 * @param seq
-	 *          Sequence to extract features from.
+	 * @param im
+	 *          image to extract features from.
+	 * @param weights
+	 *          weight of each channel in the gray image.
 	 * @param features
 	 *          The list to be filled.
 	 */
-	final public void extractFeatures(final Sequence seq, final Collection<Feature> features) {
+	@Override
+	final public void extractFeatures(final IcyBufferedImage im, final float[] weights,
+	    final Collection<Feature> features) {
 		float scale = 1.0f;
 		/*
 		 * make sure that integer rounding does not result in an image of
@@ -39,37 +71,262 @@ public class SIFT extends FeatureTransform<FloatArray2DSIFT> {
 		 */
 
 		final float maxSize = t.getMaxOctaveSize() - 1;
+		final float initialSigma = t.getInitialSigma();
+		final int width = im.getWidth();
+		final int height = im.getHeight();
 
-		FloatArray2D fa;
-		if (maxSize < seq.getSizeX() || maxSize < seq.getSizeY()) {
+		if (maxSize < width || maxSize < height) {
 			/* scale the image respectively */
-			scale = (float) Math.min(maxSize / seq.getSizeX(), maxSize / seq.getSizeY());
-			Sequence seqscaled = SequenceUtil.scale(seq, Math.round(seq.getSizeX() * scale),
-			    Math.round(seq.getSizeY() * scale));
-			fa = ImageArrayConverter.SequenceToFloatArray2DNormalize(seqscaled);
+			scale = (float) Math.min(maxSize / width, maxSize / height);
+			plane = ImageArrayConverter.IcyBufferedImageToFloatArray2D(im, weights, plane);
+			final int w = Math.round(width * scale);
+			final int h = Math.round(height * scale);
+			if (scaled == null || scaled.width != w || scaled.height != h)
+				scaled = new FloatArray2D(w, h);
+			FloatArray2DScaleOctave.downscale(plane, scaled);
+			normalize(scaled);
+			extractFeatures(scaled, false, scale, null, 0, features);
+		} else if (initialSigma >= 1.0) {
+			/* normalize and apply the initial blur in one pass */
+			plane = ImageArrayConverter.IcyBufferedImageToFloatArray2DNormalize(im, weights,
+			    createInitialKernel(initialSigma), plane);
+			extractFeatures(plane, true, scale, null, 0, features);
 		} else {
-			fa = ImageArrayConverter.SequenceToFloatArray2DNormalize(seq);
+			plane = ImageArrayConverter.IcyBufferedImageToFloatArray2DNormalize(im, weights, null, plane);
+			extractFeatures(plane, false, scale, null, 0, features);
+		}
+	}
+
+	/**
+	 * Extract SIFT features from the first image of a sequence inside a mask.
+	 * 
+	 * @param seq
+	 *          sequence to extract features from.
+	 * @param mask
+	 *          region to extract features in, null for the whole image
+	 * @param features
+	 *          The list to be filled.
+	 * 
+	 * @see #extractFeatures(IcyBufferedImage, float[], BooleanMask2D,
+	 *      Collection)
+	 */
+	final public void extractFeatures(final Sequence seq, final BooleanMask2D mask,
+	    final Collection<Feature> features) {
+		final IcyBufferedImage im = seq.getFirstImage();
+		extractFeatures(im, ImageArrayConverter.defaultChannelWeights(im.getSizeC()), mask, features);
+	}
+
+	/**
+	 * Extract SIFT features from an image inside a mask.
+	 * 
+	 * Only the bounding box of the mask, padded by the support radius of the
+	 * features, is converted and processed, it is read through a view of the
+	 * image. The crop is normalized to its own value range. Candidates outside
+	 * the mask are dropped before their descriptors are computed.
+	 * 
+	 * @param im
+	 *          image to extract features from.
+	 * @param weights
+	 *          weight of each channel in the gray image.
+	 * @param mask
+	 *          region to extract features in, null for the whole image
+	 * @param features
+	 *          The list to be filled.
+	 */
+	final public void extractFeatures(final IcyBufferedImage im, final float[] weights, final BooleanMask2D mask,
+	    final Collection<Feature> features) {
+		if (mask == null) {
+			extractFeatures(im, weights, features);
+			return;
+		}
+		final int width = im.getWidth();
+		final int height = im.getHeight();
+		final Rectangle bounds = mask.bounds.intersection(new Rectangle(0, 0, width, height));
+		if (bounds.isEmpty())
+			return;
+
+		// align the crop to the sampling grid of the coarsest octave
+		final int[] padding = getPadding(bounds.width, bounds.height, width, height);
+		final int x0 = Math.max(0, bounds.x - padding[0]) / padding[1] * padding[1];
+		final int y0 = Math.max(0, bounds.y - padding[0]) / padding[1] * padding[1];
+		final int w = Math.min(width, bounds.x + bounds.width + padding[0]) - x0;
+		final int h = Math.min(height, bounds.y + bounds.height + padding[0]) - y0;
+
+		final boolean[] cropMask = new boolean[w * h];
+		for (int y = bounds.y; y < bounds.y + bounds.height; ++y)
+			for (int x = bounds.x; x < bounds.x + bounds.width; ++x)
+				cropMask[(y - y0) * w + x - x0] = mask.mask[(y - mask.bounds.y) * mask.bounds.width + x - mask.bounds.x];
+
+		final List<Feature> cropFeatures = new ArrayList<Feature>();
+		extractFeatures(new ImageSourceRegion(new IcyBufferedImageSource(im, weights), x0, y0, w, h), cropMask,
+		    cropFeatures);
+		for (final Feature f : cropFeatures) {
+			f.location[0] += x0;
+			f.location[1] += y0;
+		}
+		features.addAll(cropFeatures);
+	}
+
+	/**
+	 * Extract SIFT features from an {@link ImageSource}. Images exceeding the
+	 * maximal octave size are reduced while they are read row by row, so only
+	 * the reduced image is held in memory. Use an {@link ImageSourceRegion} to
+	 * process only a part of a large source.
+	 * 
+	 * @param src
+	 *          image to extract features from.
+	 * @param features
+	 *          The list to be filled.
+	 */
+	final public void extractFeatures(final ImageSource src, final Collection<Feature> features) {
+		extractFeatures(src, null, features);
+	}
+
+	/**
+	 * Extract SIFT features from an {@link ImageSource} inside a mask of the
+	 * size of the source.
+	 */
+	final private void extractFeatures(final ImageSource src, final boolean[] mask,
+	    final Collection<Feature> features) {
+		final float maxSize = t.getMaxOctaveSize() - 1;
+		final int width = src.getWidth();
+		final int height = src.getHeight();
+
+		float scale = 1.0f;
+		final FloatArray2D fa;
+		if (maxSize < width || maxSize < height) {
+			scale = Math.min(maxSize / width, maxSize / height);
+			fa = new FloatArray2D(Math.round(width * scale), Math.round(height * scale));
+			FloatArray2DScaleOctave.downscale(src, fa);
+		} else
+			fa = FloatArray2DImageSource.read(src);
+		normalize(fa);
+		extractFeatures(fa, false, scale, mask, width, features);
+	}
+
+	/**
+	 * Extract SIFT features from an {@link ImageSource} at full resolution in
+	 * overlapping square tiles.
+	 * 
+	 * Tiles overlap by the support radius of the largest octave of a tile and
+	 * start on the sampling grid of that octave, so features close to a tile
+	 * border are detected and described as in the whole image. Each feature is
+	 * kept only by the tile whose core contains its location, which drops the
+	 * duplicates detected in the overlap bands.
+	 * Structures larger than a tile are not detected. At most numThreads tiles
+	 * are processed at the same time, each worker reusing its buffers.
+	 * 
+	 * @param src
+	 *          image to extract features from.
+	 * @param tileSize
+	 *          edge length of the tile cores
+	 * @param numThreads
+	 *          maximal number of tiles processed at the same time
+	 * @param features
+	 *          The list to be filled.
+	 */
+	final public void extractFeaturesTiled(final ImageSource src, final int tileSize, final int numThreads,
+	    final Collection<Feature> features) {
+		final int width = src.getWidth();
+		final int height = src.getHeight();
+
+		final int[] padding = getPadding(tileSize, tileSize, width, height);
+		final int border = padding[0];
+		final int grid = padding[1];
+		final int maxTileSize = tileSize + 2 * border + grid;
+
+		// normalize all tiles the same way
+		final float[] range = range(src);
+		final float min = range[0];
+		final float s = range[1] > range[0] ? 1.0f / (range[1] - range[0]) : 0;
+
+		final int tilesX = (width + tileSize - 1) / tileSize;
+		final int tilesY = (height + tileSize - 1) / tileSize;
+		final int numTiles = tilesX * tilesY;
+		final List<List<Feature>> results = new ArrayList<List<Feature>>();
+		for (int i = 0; i < numTiles; ++i)
+			results.add(new ArrayList<Feature>());
+
+		final AtomicInteger next = new AtomicInteger(0);
+		final List<Runnable> workers = new ArrayList<Runnable>();
+		for (int i = Math.max(1, Math.min(numThreads, numTiles)); i > 0; --i) {
+			final SIFT worker = copy();
+			worker.t.setMaxOctaveSize(maxTileSize);
+			workers.add(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = next.getAndIncrement(); j < numTiles; j = next.getAndIncrement()) {
+						final int x0 = (j % tilesX) * tileSize;
+						final int y0 = (j / tilesX) * tileSize;
+						final int x1 = Math.min(width, x0 + tileSize);
+						final int y1 = Math.min(height, y0 + tileSize);
+						final int ex0 = Math.max(0, x0 - border) / grid * grid;
+						final int ey0 = Math.max(0, y0 - border) / grid * grid;
+						final ImageSource tile = new ImageSourceRegion(src, ex0, ey0, Math.min(width, x1 + border) - ex0,
+						    Math.min(height, y1 + border) - ey0);
+
+						worker.plane = FloatArray2DImageSource.read(tile, worker.plane);
+						ImageArrayConverter.scale(worker.plane.data, min, s);
+						final List<Feature> tileFeatures = results.get(j);
+						worker.extractFeatures(worker.plane, false, 1.0f, null, 0, tileFeatures);
+
+						// keep the features owned by this tile in global coordinates
+						for (final Iterator<Feature> it = tileFeatures.iterator(); it.hasNext();) {
+							final Feature f = it.next();
+							f.location[0] += ex0;
+							f.location[1] += ey0;
+							if (f.location[0] < x0 || f.location[0] >= x1 || f.location[1] < y0 || f.location[1] >= y1)
+								it.remove();
+						}
+					}
+				}
+			});
 		}
+		Parallel.forkAll(workers);
 
-		final float[] initialKernel;
+		for (final List<Feature> tileFeatures : results)
+			features.addAll(tileFeatures);
+	}
 
+	/**
+	 * Extract SIFT features from a normalized image.
+	 * 
+	 * @param fa
+	 *          image in range [0.0f, ..., 1.0f]
+	 * @param blurred
+	 *          whether the initial blur has already been applied to fa
+	 * @param scale
+	 *          scale of fa relative to the original image
+	 * @param mask
+	 *          pixels of the original image to keep features in, null for all
+	 * @param maskWidth
+	 *          width of the original image
+	 * @param features
+	 *          The list to be filled.
+	 */
+	final private void extractFeatures(FloatArray2D fa, final boolean blurred, float scale, final boolean[] mask,
+	    final int maskWidth, final Collection<Feature> features) {
 		final float initialSigma = t.getInitialSigma();
+
 		if (initialSigma < 1.0) {
 			scale *= 2.0f;
 			t.setInitialSigma(initialSigma * 2);
-			final FloatArray2D fat = new FloatArray2D(fa.width * 2 - 1, fa.height * 2 - 1);
-			FloatArray2DScaleOctave.upsample(fa, fat);
-
-			fa = fat;
-			initialKernel = Filter.createGaussianKernel((float) Math.sqrt(t.getInitialSigma() * t.getInitialSigma() - 1.0),
-			    true);
-		} else
-			initialKernel = Filter.createGaussianKernel((float) Math.sqrt(initialSigma * initialSigma - 0.25), true);
-
-		fa = Filter.convolveSeparable(fa, initialKernel, initialKernel);
+			final float[] initialKernel = KernelCache
+			    .gaussianKernel((float) Math.sqrt(t.getInitialSigma() * t.getInitialSigma() - 1.0));
+			if (base == null || base.width != fa.width * 2 - 1 || base.height != fa.height * 2 - 1)
+				base = new FloatArray2D(fa.width * 2 - 1, fa.height * 2 - 1);
+			FloatArray2DScaleOctave.upsampleConvolve(fa, initialKernel, base);
+			fa = base;
+		} else if (!blurred) {
+			final float[] initialKernel = createInitialKernel(initialSigma);
+			base = Filter.convolveSeparable(fa, initialKernel, initialKernel, base, null);
+			fa = base;
+		}
 
+		t.setMask(mask, maskWidth, scale);
 		t.init(fa);
 		t.extractFeatures(features);
+		t.setMask(null, 0, 1.0f);
 		if (scale != 1.0f) {
 			for (Feature f : features) {
 				f.scale /= scale;
@@ -79,4 +336,73 @@ public class SIFT extends FeatureTransform<FloatArray2DSIFT> {
 			t.setInitialSigma(initialSigma);
 		}
 	}
+
+	/**
+	 * @param width
+	 *          width of the region of interest
+	 * @param height
+	 *          height of the region of interest
+	 * @param maxWidth
+	 *          width of the image
+	 * @param maxHeight
+	 *          height of the image
+	 * 
+	 * @return { support radius, sampling grid } of the coarsest octave of the
+	 *         region padded by its support radius
+	 */
+	final private int[] getPadding(final int width, final int height, final int maxWidth, final int maxHeight) {
+		int radius = 0;
+		int numOctaves = 0;
+		for (int i = 0; i < 3; ++i) {
+			numOctaves = t.getNumOctaves(Math.min(maxWidth, width + 2 * radius), Math.min(maxHeight, height + 2 * radius));
+			radius = t.getSupportRadius(Math.max(0, numOctaves - 1));
+		}
+		return new int[] { radius, 1 << numOctaves };
+	}
+
+	/**
+	 * @return { min, max } of an image source, rows are read in parallel
+	 */
+	final static private float[] range(final ImageSource src) {
+		final int width = src.getWidth();
+		final float[] range = { Float.MAX_VALUE, -Float.MAX_VALUE };
+		Parallel.forRows(width, src.getHeight(), new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final float[] row = new float[width];
+				float min = Float.MAX_VALUE;
+				float max = -Float.MAX_VALUE;
+				for (int y = start; y < end; ++y) {
+					src.readRow(0, y, width, row, 0);
+					for (final float f : row) {
+						if (f < min)
+							min = f;
+						if (f > max)
+							max = f;
+					}
+				}
+				synchronized (range) {
+					range[0] = Math.min(range[0], min);
+					range[1] = Math.max(range[1], max);
+				}
+			}
+		});
+		return range;
+	}
+
+	/**
+	 * Map the values of fa to the range [0.0f, ..., 1.0f].
+	 */
+	final static private void normalize(final FloatArray2D fa) {
+		final float[] range = ImageArrayConverter.range(fa.data);
+		ImageArrayConverter.scale(fa.data, range[0], range[1] > range[0] ? 1.0f / (range[1] - range[0]) : 0);
+	}
+
+	/**
+	 * @return the kernel that brings an image assumed to be blurred with sigma
+	 *         0.5 to initialSigma
+	 */
+	final static private float[] createInitialKernel(final float initialSigma) {
+		return KernelCache.gaussianKernel((float) Math.sqrt(initialSigma * initialSigma - 0.25));
+	}
 }
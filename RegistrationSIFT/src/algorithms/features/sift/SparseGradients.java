@@ -0,0 +1,131 @@
+package algorithms.features.sift;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import algorithms.utils.BufferArena;
+
+/**
+ * Gradients of a gaussian image computed and memoized tile by tile on first
+ * access. The orientation and descriptor windows of a few candidates touch
+ * only a small part of an octave, only these tiles are computed and kept in
+ * memory.
+ *
+ * Each tile stores the amplitude and orientation of its pixels interleaved,
+ * they are equal to those of
+ * {@link Filter#createGradients(FloatArray2D, TileMask, GradientAccuracy, FloatArray2D[])}.
+ * Tiles may be requested from several threads. Their buffers are drawn from
+ * an optional {@link BufferArena} and returned to it by {@link #release()}.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+final public class SparseGradients {
+	/**
+	 * log2 of the edge length in px of the tiles
+	 */
+	final static public int TILE_BITS = 5;
+	final static public int TILE_SIZE = 1 << TILE_BITS;
+	final static private int TILE_MASK = TILE_SIZE - 1;
+
+	final private FloatArray2D image;
+	final private GradientAccuracy accuracy;
+	final private int tilesX;
+	final private AtomicReferenceArray<float[]> tiles;
+	final private BufferArena arena;
+
+	/**
+	 * @param image
+	 *          gaussian image, it has to be kept unchanged while tiles are
+	 *          requested
+	 * @param accuracy
+	 *          accuracy of the orientations
+	 */
+	public SparseGradients(final FloatArray2D image, final GradientAccuracy accuracy) {
+		this(image, accuracy, null);
+	}
+
+	/**
+	 * @param image
+	 *          gaussian image, it has to be kept unchanged while tiles are
+	 *          requested
+	 * @param accuracy
+	 *          accuracy of the orientations
+	 * @param arena
+	 *          source of the tile buffers, null to allocate them
+	 */
+	public SparseGradients(final FloatArray2D image, final GradientAccuracy accuracy, final BufferArena arena) {
+		this.image = image;
+		this.accuracy = accuracy;
+		this.arena = arena;
+		tilesX = (image.width + TILE_MASK) >> TILE_BITS;
+		final int tilesY = (image.height + TILE_MASK) >> TILE_BITS;
+		tiles = new AtomicReferenceArray<float[]>(tilesX * tilesY);
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 *
+	 * @return the tile containing pixel (x, y), computed if not yet available,
+	 *         the pixel is at {@link #index(int, int)}
+	 */
+	final public float[] tile(final int x, final int y) {
+		final int t = (y >> TILE_BITS) * tilesX + (x >> TILE_BITS);
+		float[] tile = tiles.get(t);
+		if (tile == null) {
+			tile = arena == null ? new float[2 * TILE_SIZE * TILE_SIZE] : arena.acquire(2 * TILE_SIZE * TILE_SIZE);
+			final int x0 = x & ~TILE_MASK;
+			final int y0 = y & ~TILE_MASK;
+			Filter.createGradientTile(image, x0, y0, Math.min(image.width, x0 + TILE_SIZE),
+			    Math.min(image.height, y0 + TILE_SIZE), TILE_SIZE, accuracy, tile);
+			// a concurrently computed tile has the same content, keep the first
+			if (!tiles.compareAndSet(t, null, tile)) {
+				if (arena != null)
+					arena.release(tile);
+				tile = tiles.get(t);
+			}
+		}
+		return tile;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 *
+	 * @return index of the amplitude of pixel (x, y) in its
+	 *         {@link #tile(int, int)}, its orientation follows
+	 */
+	final static public int index(final int x, final int y) {
+		return 2 * (((y & TILE_MASK) << TILE_BITS) + (x & TILE_MASK));
+	}
+
+	/**
+	 * @return the number of computed tiles
+	 */
+	final public int countTiles() {
+		int n = 0;
+		for (int t = 0; t < tiles.length(); ++t)
+			if (tiles.get(t) != null)
+				++n;
+		return n;
+	}
+
+	/**
+	 * Return the computed tiles to the arena, they are computed again on their
+	 * next access. Tiles obtained before must not be used afterwards.
+	 */
+	final public void release() {
+		for (int t = 0; t < tiles.length(); ++t) {
+			final float[] tile = tiles.getAndSet(t, null);
+			if (tile != null && arena != null)
+				arena.release(tile);
+		}
+	}
+
+	public int getWidth() {
+		return image.width;
+	}
+
+	public int getHeight() {
+		return image.height;
+	}
+}
@@ -0,0 +1,153 @@
+package algorithms.features.sift;
+
+import algorithms.utils.Parallel;
+
+/**
+ * Regular grid of square tiles over an image, each tile marked either as
+ * active or as background.
+ *
+ * Background tiles are those whose intensity variance is below a threshold.
+ * They are skipped by the Difference of Gaussian detector and by the gradient
+ * computation, which removes most of the work on sparse images such as
+ * fluorescence frames with a dark background.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+final public class TileMask {
+	final public int width;
+	final public int height;
+	final public int tileSize;
+	final public int tilesX;
+	final public int tilesY;
+
+	final private boolean[] active;
+
+	private TileMask(final int width, final int height, final int tileSize, final boolean[] active) {
+		this.width = width;
+		this.height = height;
+		this.tileSize = tileSize;
+		this.tilesX = (width + tileSize - 1) / tileSize;
+		this.tilesY = (height + tileSize - 1) / tileSize;
+		this.active = active;
+	}
+
+	/**
+	 * Create the mask of the tiles of an image whose intensity variance is at
+	 * least threshold. Tile sums are accumulated in a single pass over the image,
+	 * rows are processed in parallel by tile rows.
+	 *
+	 * @param img
+	 * @param tileSize
+	 *          edge length of the tiles in px
+	 * @param threshold
+	 *          minimal variance of an active tile
+	 *
+	 * @return the mask
+	 */
+	final static public TileMask create(final FloatArray2D img, final int tileSize, final float threshold) {
+		final int tilesX = (img.width + tileSize - 1) / tileSize;
+		final int tilesY = (img.height + tileSize - 1) / tileSize;
+		final boolean[] active = new boolean[tilesX * tilesY];
+
+		final int grain = Math.max(1, Parallel.MIN_PIXELS_PER_TASK / Math.max(1, img.width * tileSize));
+		Parallel.forRange(0, tilesY, grain, new Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final double[] sum = new double[tilesX];
+				final double[] sum2 = new double[tilesX];
+				for (int ty = start; ty < end; ++ty) {
+					final int y0 = ty * tileSize;
+					final int y1 = Math.min(img.height, y0 + tileSize);
+					for (int tx = 0; tx < tilesX; ++tx) {
+						sum[tx] = 0;
+						sum2[tx] = 0;
+					}
+					for (int y = y0; y < y1; ++y) {
+						final int r = y * img.width;
+						for (int tx = 0; tx < tilesX; ++tx) {
+							final int x1 = Math.min(img.width, (tx + 1) * tileSize);
+							double s = 0;
+							double s2 = 0;
+							for (int x = tx * tileSize; x < x1; ++x) {
+								final double v = img.data[r + x];
+								s += v;
+								s2 += v * v;
+							}
+							sum[tx] += s;
+							sum2[tx] += s2;
+						}
+					}
+					for (int tx = 0; tx < tilesX; ++tx) {
+						final int n = (Math.min(img.width, (tx + 1) * tileSize) - tx * tileSize) * (y1 - y0);
+						final double mean = sum[tx] / n;
+						active[ty * tilesX + tx] = sum2[tx] / n - mean * mean >= threshold;
+					}
+				}
+			}
+		});
+
+		return new TileMask(img.width, img.height, tileSize, active);
+	}
+
+	/**
+	 * @param r
+	 *          halo in tiles
+	 *
+	 * @return a new mask with the active tiles grown by r tiles in each
+	 *         direction
+	 */
+	final public TileMask dilate(final int r) {
+		final boolean[] dilated = new boolean[active.length];
+		for (int ty = 0; ty < tilesY; ++ty)
+			for (int tx = 0; tx < tilesX; ++tx) {
+				if (!active[ty * tilesX + tx])
+					continue;
+				for (int y = Math.max(0, ty - r); y <= Math.min(tilesY - 1, ty + r); ++y)
+					for (int x = Math.max(0, tx - r); x <= Math.min(tilesX - 1, tx + r); ++x)
+						dilated[y * tilesX + x] = true;
+			}
+		return new TileMask(width, height, tileSize, dilated);
+	}
+
+	/**
+	 * @return whether tile (tx, ty) is active
+	 */
+	final public boolean isActive(final int tx, final int ty) {
+		return active[ty * tilesX + tx];
+	}
+
+	/**
+	 * @return whether the tile containing pixel (x, y) is active
+	 */
+	final public boolean isActiveAt(final int x, final int y) {
+		return active[(y / tileSize) * tilesX + x / tileSize];
+	}
+
+	/**
+	 * @return whether any tile in tile row ty is active
+	 */
+	final public boolean isRowActive(final int ty) {
+		for (int tx = 0; tx < tilesX; ++tx)
+			if (active[ty * tilesX + tx])
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return number of tiles
+	 */
+	final public int size() {
+		return active.length;
+	}
+
+	/**
+	 * @return number of active tiles
+	 */
+	final public int countActive() {
+		int n = 0;
+		for (final boolean a : active)
+			if (a)
+				++n;
+		return n;
+	}
+}
@@ -0,0 +1,51 @@
+package algorithms.features.sift;
+
+/**
+ * SIMD implementation of the data parallel inner loops of the scale space.
+ *
+ * Implementations must produce the same results as the scalar code, that is,
+ * sum the terms of each pixel in the same order. The backend in use is
+ * {@link Filter#VECTOR}, it is null when no implementation could be loaded.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+public interface VectorBackend {
+	/**
+	 * Same as {@link Filter#convolveRow(float[], int, float[], float[], int)}
+	 * for symmetric kernels.
+	 */
+	void convolveRow(float[] row, int width, float[] h, float[] dst, int o);
+
+	/**
+	 * Convolve the columns [x0, x1) of output row y with a symmetric vertical
+	 * kernel.
+	 *
+	 * @param in
+	 *          input image data
+	 * @param ro
+	 *          offsets of the input rows, ro[y + i] being the row under tap i
+	 * @param y
+	 *          output row
+	 * @param v
+	 *          symmetric vertical kernel
+	 * @param out
+	 *          output image data
+	 * @param r
+	 *          offset of output row y
+	 * @param x0
+	 *          first column
+	 * @param x1
+	 *          last column + 1
+	 */
+	void convolveColumns(float[] in, int[] ro, int y, float[] v, float[] out, int r, int x0, int x1);
+
+	/**
+	 * dst[i] = (b[i] - a[i]) * s for i in [start, end)
+	 */
+	void difference(float[] a, float[] b, float s, float[] dst, int start, int end);
+
+	/**
+	 * dst[o + x] = src[so + 2 * x] for x in [0, n)
+	 */
+	void downsampleRow(float[] src, int so, float[] dst, int o, int n);
+}
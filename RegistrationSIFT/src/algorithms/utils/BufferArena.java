@@ -0,0 +1,98 @@
+package algorithms.utils;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of float arrays bucketed by their exact length, owned by one user,
+ * e.g. a feature extractor recycling its scale space from one image to the
+ * next.
+ *
+ * Unlike the shared {@link ScratchPool}, released arrays are held strongly up
+ * to a capacity in bytes, so that repeated work on images of the same size
+ * finds all its buffers and allocates none. Arrays released beyond the
+ * capacity are dropped. Acquired arrays are not cleared. The arena is thread
+ * safe.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+final public class BufferArena {
+	final private long capacity;
+	private long pooledBytes = 0;
+
+	final private Map<Integer, ArrayDeque<float[]>> buckets = new HashMap<Integer, ArrayDeque<float[]>>();
+
+	/**
+	 * @param capacity
+	 *          maximal number of bytes held by released arrays
+	 */
+	public BufferArena(final long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param length
+	 *
+	 * @return a pooled array of the given length or a new one if the arena has
+	 *         none, its content is undefined
+	 */
+	final public float[] acquire(final int length) {
+		synchronized (buckets) {
+			final ArrayDeque<float[]> bucket = buckets.get(length);
+			if (bucket != null && !bucket.isEmpty()) {
+				pooledBytes -= 4L * length;
+				return bucket.pop();
+			}
+		}
+		return new float[length];
+	}
+
+	/**
+	 * Return an array to the arena. The caller must not use it afterwards.
+	 *
+	 * @param a
+	 *          array, ignored if null
+	 */
+	final public void release(final float[] a) {
+		if (a == null)
+			return;
+		synchronized (buckets) {
+			if (pooledBytes + 4L * a.length > capacity)
+				return;
+			ArrayDeque<float[]> bucket = buckets.get(a.length);
+			if (bucket == null) {
+				bucket = new ArrayDeque<float[]>();
+				buckets.put(a.length, bucket);
+			}
+			bucket.push(a);
+			pooledBytes += 4L * a.length;
+		}
+	}
+
+	/**
+	 * Drop all pooled arrays.
+	 */
+	final public void clear() {
+		synchronized (buckets) {
+			buckets.clear();
+			pooledBytes = 0;
+		}
+	}
+
+	/**
+	 * @return maximal number of bytes held by released arrays
+	 */
+	final public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of bytes currently held by released arrays
+	 */
+	final public long getPooledBytes() {
+		synchronized (buckets) {
+			return pooledBytes;
+		}
+	}
+}
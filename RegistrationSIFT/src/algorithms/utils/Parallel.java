@@ -0,0 +1,145 @@
+package algorithms.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Minimal data parallel helpers on the shared {@link ForkJoinPool}.
+ *
+ * Work is expressed as a half open index range [start, end) that is split in
+ * bands of at least <code>grain</code> indices. Ranges that are too small to
+ * be worth splitting are executed sequentially in the calling thread.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+final public class Parallel {
+	/**
+	 * Minimal number of pixels a band should contain to be processed in its own
+	 * task.
+	 */
+	final static public int MIN_PIXELS_PER_TASK = 1 << 16;
+
+	/**
+	 * A task working on the half open index range [start, end).
+	 */
+	public interface Range {
+		void run(int start, int end);
+	}
+
+	private Parallel() {
+	}
+
+	/**
+	 * @return the pool used by all parallel helpers
+	 */
+	final static public ForkJoinPool pool() {
+		return ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Execute <code>task</code> on [start, end), split in bands of at least
+	 * <code>grain</code> indices.
+	 *
+	 * @param start
+	 *          first index
+	 * @param end
+	 *          last index + 1
+	 * @param grain
+	 *          minimal band size
+	 * @param task
+	 */
+	final static public void forRange(final int start, final int end, final int grain, final Range task) {
+		final int n = end - start;
+		if (n <= 0)
+			return;
+		final int parallelism = pool().getParallelism();
+		final int g = Math.max(Math.max(1, grain), (n + 4 * parallelism - 1) / (4 * parallelism));
+		if (n <= g || parallelism < 2)
+			task.run(start, end);
+		else
+			// forks from a foreign thread go to the common pool
+			new RangeAction(start, end, g, task).invoke();
+	}
+
+	/**
+	 * Execute <code>task</code> on the rows [0, height) of an image of the given
+	 * width, falling back to sequential execution for small images.
+	 *
+	 * @param width
+	 * @param height
+	 * @param task
+	 */
+	final static public void forRows(final int width, final int height, final Range task) {
+		forRange(0, height, MIN_PIXELS_PER_TASK / Math.max(1, width), task);
+	}
+
+	/**
+	 * Run the tasks in the shared pool and wait for all of them to finish. The
+	 * tasks may fork further work, e.g. by {@link #forRange(int, int, int, Range)},
+	 * which is then shared among the threads waiting here. Without parallelism
+	 * the tasks run in order in the calling thread.
+	 *
+	 * @param tasks
+	 *
+	 * @throws RuntimeException
+	 *           thrown by a task
+	 */
+	final static public void forkAll(final List<? extends Runnable> tasks) {
+		if (tasks.size() < 2 || pool().getParallelism() < 2) {
+			for (final Runnable task : tasks)
+				task.run();
+			return;
+		}
+		final List<ForkJoinTask<?>> actions = new ArrayList<ForkJoinTask<?>>(tasks.size());
+		for (final Runnable task : tasks)
+			actions.add(ForkJoinTask.adapt(task));
+		if (ForkJoinTask.inForkJoinPool())
+			ForkJoinTask.invokeAll(actions);
+		else
+			pool().invoke(new AllAction(actions));
+	}
+
+	final static private class AllAction extends RecursiveAction {
+		private static final long serialVersionUID = 5071328590164622873L;
+
+		final private List<ForkJoinTask<?>> actions;
+
+		AllAction(final List<ForkJoinTask<?>> actions) {
+			this.actions = actions;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(actions);
+		}
+	}
+
+	final static private class RangeAction extends RecursiveAction {
+		private static final long serialVersionUID = -2312871035406931478L;
+
+		final private int start;
+		final private int end;
+		final private int grain;
+		final private Range task;
+
+		RangeAction(final int start, final int end, final int grain, final Range task) {
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+			this.task = task;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= grain)
+				task.run(start, end);
+			else {
+				final int mid = (start + end) >>> 1;
+				invokeAll(new RangeAction(start, mid, grain, task), new RangeAction(mid, end, grain, task));
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package algorithms.utils;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shared pool of float arrays bucketed by their exact length.
+ *
+ * Arrays are held through {@link SoftReference}s, so pooled buffers are
+ * reclaimed under memory pressure. Acquired arrays are not cleared. The pool
+ * is thread safe.
+ *
+ * @author Daniel Felipe Gonzalez Obando
+ */
+final public class ScratchPool {
+	/**
+	 * Maximal number of arrays kept per length.
+	 */
+	final static public int MAX_PER_SIZE = 32;
+
+	final static private Map<Integer, ArrayDeque<SoftReference<float[]>>> buckets = new HashMap<Integer, ArrayDeque<SoftReference<float[]>>>();
+
+	private ScratchPool() {
+	}
+
+	/**
+	 * @param length
+	 *
+	 * @return a pooled array of the given length or a new one if the pool has
+	 *         none, its content is undefined
+	 */
+	final static public float[] acquire(final int length) {
+		synchronized (buckets) {
+			final ArrayDeque<SoftReference<float[]>> bucket = buckets.get(length);
+			if (bucket != null) {
+				while (!bucket.isEmpty()) {
+					final float[] a = bucket.pop().get();
+					if (a != null)
+						return a;
+				}
+			}
+		}
+		return new float[length];
+	}
+
+	/**
+	 * Return an array to the pool. The caller must not use it afterwards.
+	 *
+	 * @param a
+	 *          array, ignored if null
+	 */
+	final static public void release(final float[] a) {
+		if (a == null)
+			return;
+		synchronized (buckets) {
+			ArrayDeque<SoftReference<float[]>> bucket = buckets.get(a.length);
+			if (bucket == null) {
+				bucket = new ArrayDeque<SoftReference<float[]>>();
+				buckets.put(a.length, bucket);
+			}
+			if (bucket.size() < MAX_PER_SIZE)
+				bucket.push(new SoftReference<float[]>(a));
+		}
+	}
+
+	/**
+	 * Drop all pooled arrays.
+	 */
+	final static public void clear() {
+		synchronized (buckets) {
+			buckets.clear();
+		}
+	}
+}
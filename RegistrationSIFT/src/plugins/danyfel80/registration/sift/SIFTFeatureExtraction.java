@@ -10,6 +10,8 @@ import plugins.adufour.blocks.lang.Block;
 import plugins.adufour.blocks.util.VarList;
 import plugins.adufour.ezplug.EzGroup;
 import plugins.adufour.ezplug.EzPlug;
+import plugins.adufour.ezplug.EzVarBoolean;
+import plugins.adufour.ezplug.EzVarFloat;
 import plugins.adufour.ezplug.EzVarInteger;
 import plugins.adufour.ezplug.EzVarSequence;
 import plugins.adufour.vars.lang.Var;
@@ -17,6 +19,7 @@ import plugins.danyfel80.registration.sift.overlay.SIFTFeatureOverlay;
 import algorithms.features.sift.Feature;
 import algorithms.features.sift.FloatArray2DSIFT;
 import algorithms.features.sift.FloatArray2DSIFT.Param;
+import algorithms.features.sift.ImageArrayConverter;
 import algorithms.features.sift.SIFT;
 
 /**
@@ -53,6 +56,15 @@ public class SIFTFeatureExtraction extends EzPlug implements Block {
 	 * 4x4px patch.
 	 */
 	private EzVarInteger inFeatDescOBinSize;
+	/**
+	 * Background variance threshold. Tiles with a lower intensity variance are
+	 * skipped, 0 processes the whole image.
+	 */
+	private EzVarFloat inBackgroundThreshold;
+	/**
+	 * Restrict the extraction to the area ROIs of the image.
+	 */
+	private EzVarBoolean inRestrictToROIs;
 
 	// Input and parameters
 	Param siftParam = new Param();
@@ -64,7 +76,10 @@ public class SIFTFeatureExtraction extends EzPlug implements Block {
 		super.getDescriptor().setName("SIFT Features Extractor");
 		inSequence1 = new EzVarSequence("Image 1");
 
-		EzGroup groupSequences = new EzGroup("Images", inSequence1);
+		inRestrictToROIs = new EzVarBoolean("Restrict to ROIs", false);
+		inRestrictToROIs.setToolTipText("Extract features only inside the area ROIs of the image");
+
+		EzGroup groupSequences = new EzGroup("Images", inSequence1, inRestrictToROIs);
 		super.addEzComponent(groupSequences);
 
 		inMaxResolution = new EzVarInteger("Maximum resolution", siftParam.maxOctaveSize, 64, 32768, 32);
@@ -81,8 +96,13 @@ public class SIFTFeatureExtraction extends EzPlug implements Block {
 		inFeatDescOBinSize = new EzVarInteger("Feature descriptor orientation bins", siftParam.fdBins, 8, 20, 4);
 		inFeatDescOBinSize.setToolTipText("Number of orientation bins in each 4x4px patch");
 
+		inBackgroundThreshold = new EzVarFloat("Background variance threshold", siftParam.backgroundThreshold, 0.0f, 1.0f,
+		    0.0001f);
+		inBackgroundThreshold.setToolTipText(
+		    "Tiles of the image with a lower intensity variance are skipped as background, set to 0 to process the whole image");
+
 		EzGroup groupDescriptor = new EzGroup("Feature Descriptor", inMaxResolution, inMinResolution, inFeatDescSize,
-		    inFeatDescOBinSize);
+		    inFeatDescOBinSize, inBackgroundThreshold);
 		super.addEzComponent(groupDescriptor);
 	}
 
@@ -95,6 +115,7 @@ public class SIFTFeatureExtraction extends EzPlug implements Block {
 		siftParam.minOctaveSize = inMinResolution.getValue();
 		siftParam.fdSize = inFeatDescSize.getValue();
 		siftParam.fdBins = inFeatDescOBinSize.getValue();
+		siftParam.backgroundThreshold = inBackgroundThreshold.getValue();
 
 		// Verify if two images are selected
 		if (seq1 == null) {
@@ -115,10 +136,13 @@ public class SIFTFeatureExtraction extends EzPlug implements Block {
 		// Extract features from 1st image
 		System.out.println("Processing SIFT for image...");
 		startTime = System.nanoTime();
-		icySIFT.extractFeatures(seq1, fs1);
+		icySIFT.extractFeatures(seq1,
+		    inRestrictToROIs.getValue() ? ImageArrayConverter.SequenceROIsToBooleanMask(seq1) : null, fs1);
 		partialTime = (System.nanoTime() - startTime) / 1000000;
 		System.out.println(" took " + partialTime + "ms.");
 		System.out.println(" " + fs1.size() + " features extracted.");
+		if (siftParam.backgroundThreshold > 0)
+			System.out.println(" " + sift.getNumSkippedTiles() + " of " + sift.getNumTiles() + " tiles skipped as background.");
 
 		SIFTFeatureOverlay overlay1 = new SIFTFeatureOverlay(fs1);
 		seq1.addOverlay(overlay1);
@@ -132,6 +156,8 @@ public class SIFTFeatureExtraction extends EzPlug implements Block {
 	@Override
 	public void declareInput(VarList inputMap) {
 		inSequence1 = new EzVarSequence("Image 1");
+		inRestrictToROIs = new EzVarBoolean("Restrict to ROIs", false);
+		inRestrictToROIs.setToolTipText("Extract features only inside the area ROIs of the image");
 
 		inMaxResolution = new EzVarInteger("Maximum resolution", siftParam.maxOctaveSize, 64, 32768, 32);
 		inMaxResolution.setToolTipText("Resolution of the first octave in the scale-space, "
@@ -147,11 +173,18 @@ public class SIFTFeatureExtraction extends EzPlug implements Block {
 		inFeatDescOBinSize = new EzVarInteger("Feature descriptor orientation bins", siftParam.fdBins, 8, 20, 4);
 		inFeatDescOBinSize.setToolTipText("Number of orientation bins in each 4x4px patch");
 
+		inBackgroundThreshold = new EzVarFloat("Background variance threshold", siftParam.backgroundThreshold, 0.0f, 1.0f,
+		    0.0001f);
+		inBackgroundThreshold.setToolTipText(
+		    "Tiles of the image with a lower intensity variance are skipped as background, set to 0 to process the whole image");
+
 		inputMap.add(inSequence1.name, inSequence1.getVariable());
+		inputMap.add(inRestrictToROIs.name, inRestrictToROIs.getVariable());
 		inputMap.add(inMaxResolution.name, inMaxResolution.getVariable());
 		inputMap.add(inMinResolution.name, inMinResolution.getVariable());
 		inputMap.add(inFeatDescSize.name, inFeatDescSize.getVariable());
 		inputMap.add(inFeatDescOBinSize.name, inFeatDescOBinSize.getVariable());
+		inputMap.add(inBackgroundThreshold.name, inBackgroundThreshold.getVariable());
 	}
 
 	private Var<List<Feature>> outFeatures1 = new Var<List<Feature>>("Features Image 1", new ArrayList<Feature>());
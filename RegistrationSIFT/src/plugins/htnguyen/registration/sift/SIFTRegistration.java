@@ -19,6 +19,7 @@ import plugins.kernel.roi.roi2d.ROI2DPoint;
 import algorithms.features.sift.Feature;
 import algorithms.features.sift.FeatureTransform;
 import algorithms.features.sift.FloatArray2DSIFT;
+import algorithms.features.sift.ImageArrayConverter;
 import algorithms.features.sift.SIFT;
 import algorithms.models.Point;
 import algorithms.models.PointMatch;
@@ -77,6 +78,10 @@ public class SIFTRegistration extends EzPlug implements EzStoppable {
 	 * Input image 2.
 	 */
 	private EzVarSequence inSequence2;
+	/**
+	 * Restrict the extraction to the area ROIs of each image.
+	 */
+	private EzVarBoolean inRestrictToROIs;
 
 	/**
 	 * Maximum resolution. The resolution of the first octave in the scale-space,
@@ -154,7 +159,10 @@ public class SIFTRegistration extends EzPlug implements EzStoppable {
 		inSequence1 = new EzVarSequence("Image 1");
 		inSequence2 = new EzVarSequence("Image 2");
 
-		EzGroup groupSequences = new EzGroup("Images", inSequence1, inSequence2);
+		inRestrictToROIs = new EzVarBoolean("Restrict to ROIs", false);
+		inRestrictToROIs.setToolTipText("Extract features only inside the area ROIs of each image");
+
+		EzGroup groupSequences = new EzGroup("Images", inSequence1, inSequence2, inRestrictToROIs);
 		super.addEzComponent(groupSequences);
 
 		inMaxResolution = new EzVarInteger("Maximum resolution", p.sift.maxOctaveSize, 64, 32768, 32);
@@ -261,7 +269,8 @@ public class SIFTRegistration extends EzPlug implements EzStoppable {
 		// Extract features from 1st image
 		System.out.println("Processing SIFT for image 1...");
 		startTime = System.nanoTime();
-		icySIFT.extractFeatures(seq1, fs1);
+		icySIFT.extractFeatures(seq1,
+		    inRestrictToROIs.getValue() ? ImageArrayConverter.SequenceROIsToBooleanMask(seq1) : null, fs1);
 		partialTime = (System.nanoTime() - startTime) / 1000000;
 		totalTime += System.nanoTime() - startTime;
 		System.out.println(" took " + partialTime + "ms.");
@@ -275,7 +284,8 @@ public class SIFTRegistration extends EzPlug implements EzStoppable {
 		// Extract features from 2nd image
 		System.out.println("Processing SIFT for image 2...");
 		startTime = System.nanoTime();
-		icySIFT.extractFeatures(seq2, fs2);
+		icySIFT.extractFeatures(seq2,
+		    inRestrictToROIs.getValue() ? ImageArrayConverter.SequenceROIsToBooleanMask(seq2) : null, fs2);
 		partialTime = (System.nanoTime() - startTime) / 1000000;
 		totalTime += System.nanoTime() - startTime;
 		System.out.println(" took " + partialTime + "ms.");